@@ -143,16 +143,27 @@ public class Main extends Application {
                         lobbyController.handleRoomListUpdate(message);
                     }
                     break;
-                case MESSAGE_TYPE_S2C_JOIN_REQUEST:
+                case MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS:
                     if (lobbyController != null) {
-                        lobbyController.handleJoinRequest(message);
+                        lobbyController.handleQuickMatchStatus(message);
                     }
                     break;
-                case MESSAGE_TYPE_S2C_JOIN_APPROVED:
+                case MESSAGE_TYPE_S2C_TOURNAMENT_STATUS:
+                    handleTournamentStatus(message.getData());
+                    break;
+                case MESSAGE_TYPE_S2C_ROOM_LIST_DELTA:
                     if (lobbyController != null) {
-                        lobbyController.handleJoinApproved(message);
+                        lobbyController.handleRoomListDelta(message);
                     }
                     break;
+                case MESSAGE_TYPE_S2C_JOIN_REQUEST:
+                    if (lobbyController != null) {
+                        lobbyController.handleJoinRequest(message);
+                    }
+                    break;
+                case MESSAGE_TYPE_S2C_JOIN_REQUEST_FAIL:
+                    utils.UIHelper.showError("Join Request", message.getData());
+                    break;
                 case MESSAGE_TYPE_S2C_JOIN_REJECTED:
                     if (lobbyController != null) {
                         lobbyController.handleJoinRejected(message);
@@ -202,10 +213,7 @@ public class Main extends Application {
                     break;
                 case MESSAGE_TYPE_S2C_FRIEND_REJECTED:
                 case MESSAGE_TYPE_S2C_FRIEND_REMOVED:
-                    if (lobbyController != null) {
-                        networkManager.sendMessage(new models.Message(MESSAGE_TYPE_GET_FRIENDS, ""));
-                        networkManager.sendMessage(new models.Message(MESSAGE_TYPE_GET_FRIEND_REQUESTS, ""));
-                    }
+                    // Danh sách bạn được cập nhật qua S2C_FRIEND_STATUS_CHANGED
                     break;
                 case MESSAGE_TYPE_S2C_ROOM_INVITE:
                     if (lobbyController != null) {
@@ -222,16 +230,37 @@ public class Main extends Application {
                     break;
                 case MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED:
                     if (lobbyController != null) {
-                        networkManager.sendMessage(new models.Message(MESSAGE_TYPE_GET_FRIENDS, ""));
+                        lobbyController.handleFriendStatusChanged(message);
                     }
                     break;
                 case MESSAGE_TYPE_GAME_START:
                     gameIsOver = false;
+                    // Format: roomId;orderSeed;startAtMs;endAtMs (giờ server)
+                    String[] startParts = message.getData().split(";");
+                    if (startParts.length >= 2) {
+                        try {
+                            gameController.setOrderSeed(Long.parseLong(startParts[1]));
+                            if (startParts.length >= 3) {
+                                long startAt = Long.parseLong(startParts[2]);
+                                gameController.setMatchStart(networkManager.serverToLocalTime(startAt));
+                                System.out.println("Match starts at server time " + startAt
+                                        + " (clock: " + networkManager.getClockSync() + ")");
+                            }
+                        } catch (NumberFormatException e) {
+                            System.err.println("Invalid GAME_START data: " + message.getData());
+                        }
+                    }
                     Platform.runLater(() -> showGameScreen(false));
                     break;
                 case MESSAGE_TYPE_S2C_GAME_STATE:
                     gameController.handleGameState(message);
                     break;
+                case MESSAGE_TYPE_S2C_GAME_STATE_DELTA:
+                    gameController.handleGameStateDelta(message);
+                    break;
+                case MESSAGE_TYPE_S2C_GAME_RESYNC:
+                    gameController.handleResync(message);
+                    break;
                 case MESSAGE_TYPE_S2C_GAME_OVER:
                     gameIsOver = true;
                     gameController.handleGameOver(message);
@@ -257,6 +286,32 @@ public class Main extends Application {
         utils.UIHelper.showError("Error", message.getData());
     }
     
+    /**
+     * Tournament progress: "status;tournamentId;round" or "error;reason"
+     * Trận kế tiếp tự đến qua ROOM_JOINED + GAME_START nên chỉ báo khi có kết quả
+     */
+    private void handleTournamentStatus(String data) {
+        String[] parts = data.split(";");
+        switch (parts[0]) {
+            case "created":
+                utils.UIHelper.showInfo("Tournament", "Tournament #" + parts[1] + " started with "
+                        + parts[2] + " players.");
+                break;
+            case "eliminated":
+                utils.UIHelper.showInfo("Tournament", "You were eliminated in round " + parts[2] + ".");
+                break;
+            case "champion":
+                utils.UIHelper.showInfo("Tournament", "You won tournament #" + parts[1] + "!");
+                break;
+            case "error":
+                utils.UIHelper.showError("Tournament", parts.length > 1 ? parts[1] : "Failed");
+                break;
+            default:
+                System.out.println("Tournament " + parts[1] + ": " + parts[0] + " (round " + parts[2] + ")");
+                break;
+        }
+    }
+
     private void handleLogout() {
         utils.SoundManager.getInstance().stopMusic();
         networkManager.sendMessage(new models.Message(MESSAGE_TYPE_LOGOUT, ""));
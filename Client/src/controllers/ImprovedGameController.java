@@ -1,5 +1,7 @@
 package controllers;
 
+import game.GameCore;
+import game.OrderGenerator;
 import javafx.animation.*;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
@@ -17,6 +19,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import models.GameStateDelta;
 import models.Message;
 import utils.AssetManager;
 import utils.JsonParser;
@@ -26,7 +29,8 @@ import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
 
-import static constants.GameConstants.MESSAGE_TYPE_GAME_SCORE;
+import static constants.GameConstants.MESSAGE_TYPE_GAME_INPUT;
+import static constants.GameConstants.MESSAGE_TYPE_GAME_STATE_ACK;
 import static constants.GameConstants.MESSAGE_TYPE_LEAVE_ROOM;
 
 /**
@@ -35,6 +39,7 @@ import static constants.GameConstants.MESSAGE_TYPE_LEAVE_ROOM;
  * - Server/Client: mỗi yêu cầu là 1 list các vật phẩm (string); người chơi phải bấm đúng theo thứ tự
  * - Độ khó: 5s/yêu cầu, mỗi 15s giảm 1s (tối thiểu 1s)
  * - Bỏ combo; sai trừ điểm, đúng theo thứ tự; hoàn tất list thì +1 điểm và chuyển yêu cầu mới
+ * - Luật chơi nằm trong game.GameCore (dùng chung với server), controller chỉ lo UI
  */
 public class ImprovedGameController {
 
@@ -66,28 +71,36 @@ public class ImprovedGameController {
 
     // Map phím số -> item (1..9 theo thứ tự: trên xuống, trái sang phải)
     private final Map<KeyCode, String> keyToItem = new HashMap<>();
+    // Map phím -> số phím 1..9 (gửi lên server trong input event)
+    private final Map<KeyCode, Integer> keyToNumber = new HashMap<>();
 
-    // Yêu cầu hiện tại (list string) và chỉ số đang cần nhập
+    // Yêu cầu hiện tại (tên item, chỉ để hiển thị)
     private List<String> currentSequence = new ArrayList<>();
-    private int currentIndex = 0;
+
+    // Chuỗi order của ván đang chơi (chơi mạng: từ seed server gửi trong GAME_START,
+    // giống hệt ở cả 2 client và server; chơi đơn: seed ngẫu nhiên mới mỗi ván)
+    private OrderGenerator orders;
+    private OrderGenerator scheduledOrders; // từ GAME_START, chỉ dùng cho ván tiếp theo
+    // Luật chơi (chấm điểm, độ khó, order hiện tại) nằm trong GameCore dùng chung với server
+    private GameCore core;
 
     // Điểm & thời gian
     private int myScore = 0;
     private int opponentScore = 0; // vẫn giữ để hiển thị
     private long gameStartMillis = 0L;
-    private long roundStartMillis = 0L;
+    private long scheduledStartMillis = 0L;   // mốc bắt đầu chung (giờ máy này) nhận từ GAME_START
 
     // Thời gian cho mỗi yêu cầu (theo độ khó, tự giảm)
     private double allowedTimeSeconds = 5.0; // mặc định
     private Timeline roundTimer;              // đếm ngược từng yêu cầu
     private Timeline hudTicker;               // cập nhật HUD mỗi 100ms
     private Timeline gameTimer;               // đếm ngược thời gian chơi tổng
+    private Timeline inputFlushTicker;        // gửi batch input event mỗi 50ms
 
-    // Các cấu hình nhỏ
-    private static final int MIN_SEQUENCE_LEN = 2; // Độ dài tối thiểu
-    private static final int MAX_SEQUENCE_LEN = 6; // Độ dài tối đa
-    private static final double MIN_ALLOWED = 2.0;
-    private static final int GAME_DURATION_SECONDS = 60; // Thời gian chơi: 1 phút
+    // Input event chưa gửi: "key,orderIndex,clientTimeMs;" nối tiếp nhau
+    private static final int INPUT_FLUSH_MILLIS = 50;
+    private final StringBuilder pendingInputs = new StringBuilder(256);
+    private int resyncEpoch = 0; // Epoch của S2C_GAME_RESYNC gần nhất, gửi kèm mỗi batch
 
     private boolean isSinglePlayer = true;
     private String myUsername;
@@ -95,12 +108,15 @@ public class ImprovedGameController {
     private boolean gameEnded = false;
     private String gameOverReason = null;
     private SoundManager soundManager;
-    private int currentSequenceLength = 0; // Độ dài order hiện tại
     private String currentRoomId;
 
     // ====== THÊM MỚI: Map lưu trữ các VBox cells để highlight ======
     private Map<String, VBox> itemCells = new HashMap<>();
 
+    // Các snapshot game state gần nhất nhận từ server (seq -> fields), làm baseline cho delta
+    private static final int SNAPSHOT_HISTORY = 32;
+    private final Map<Integer, Map<String, String>> receivedSnapshots = new HashMap<>();
+
 
     // Constructor
     public ImprovedGameController(Stage stage, Runnable onBackToMenu, Runnable onBackToRoom, Consumer<Message> onSendMessage) {
@@ -113,6 +129,16 @@ public class ImprovedGameController {
 
     // ====== Public API (GIỮ NGUYÊN TÊN) ======
 
+    /** Mốc bắt đầu ván tiếp theo, đã đổi từ giờ server sang giờ máy này */
+    public void setMatchStart(long localStartMillis) {
+        this.scheduledStartMillis = localStartMillis;
+    }
+
+    /** Seed chuỗi order cho ván tiếp theo (nhận từ GAME_START) */
+    public void setOrderSeed(long seed) {
+        this.scheduledOrders = new OrderGenerator(seed);
+    }
+
     /** Màn chơi chính */
     public void show(boolean isSinglePlayer, String username, String roomId) {
         this.isSinglePlayer = isSinglePlayer;
@@ -280,12 +306,24 @@ public class ImprovedGameController {
         myScore = 0;
         opponentScore = 0;
         gameEnded = false;
+        receivedSnapshots.clear();
+        // Chơi đơn: không có seed từ server, mỗi ván một chuỗi order mới
+        orders = scheduledOrders != null ? scheduledOrders : new OrderGenerator(ThreadLocalRandom.current().nextLong());
+        scheduledOrders = null;
+        if (core == null) {
+            core = new GameCore(orders);
+        } else {
+            core.reset(orders);
+        }
+        pendingInputs.setLength(0);
+        resyncEpoch = 0;
 
-        sendScoreUpdate();
         updateScoreLabels();
 
-        gameStartMillis = System.currentTimeMillis();
-        allowedTimeSeconds = 5.0;
+        // Chơi mạng: mọi client tính giờ từ cùng một mốc của server; chơi đơn: bắt đầu ngay
+        gameStartMillis = scheduledStartMillis > 0 ? scheduledStartMillis : System.currentTimeMillis();
+        scheduledStartMillis = 0L;
+        allowedTimeSeconds = GameCore.allowedSeconds(0);
 
         // Stop existing timers
         stopAllTimers();
@@ -302,6 +340,12 @@ public class ImprovedGameController {
         gameTimer.setCycleCount(Animation.INDEFINITE);
         gameTimer.play();
 
+        // Input batch - gửi các phím đã bấm theo nhịp cố định thay vì mỗi lần bấm
+        inputFlushTicker = new Timeline(
+                new KeyFrame(Duration.millis(INPUT_FLUSH_MILLIS), e -> flushInputs()));
+        inputFlushTicker.setCycleCount(Animation.INDEFINITE);
+        inputFlushTicker.play();
+
         nextRequest();
         setCustomerEmotion("neutral");
     }
@@ -316,6 +360,7 @@ public class ImprovedGameController {
         int idx = 0;
         for (int r = 0; r < 3; r++) {
             for (int c = 0; c < 3; c++) {
+                keyToNumber.put(keys[idx], idx + 1);
                 keyToItem.put(keys[idx++], ITEM_MATRIX[r][c]);
             }
         }
@@ -328,6 +373,7 @@ public class ImprovedGameController {
         idx = 0;
         for (int r = 0; r < 3; r++) {
             for (int c = 0; c < 3; c++) {
+                keyToNumber.put(numpad[idx], idx + 1);
                 keyToItem.put(numpad[idx++], ITEM_MATRIX[r][c]);
             }
         }
@@ -337,29 +383,36 @@ public class ImprovedGameController {
     private void handleKey(KeyCode code) {
         if (gameEnded || !keyToItem.containsKey(code)) return;
 
-        String expect = currentSequence.get(currentIndex);
+        long now = elapsedMillis();
+        if (now < 0) return; // chưa tới mốc bắt đầu chung
+        if (core.advanceTime(now)) {
+            // Order đã hết giờ ngay trước phím này
+            nextRequest();
+        }
+
+        int keyNumber = keyToNumber.get(code);
+        recordInput(keyNumber);
+
         String got = keyToItem.get(code);
-        if (got.equals(expect)) {
+        int result = core.press(keyNumber, now);
+        if (result == GameCore.RESULT_CORRECT || result == GameCore.RESULT_ORDER_COMPLETE) {
             // đúng vị trí
-            currentIndex++;
             flashRequestProgress();
             setCustomerEmotion("happy"); // Customer vui
             soundManager.playPickup();
             highlightCell(got); // ====== THÊM MỚI: Highlight ô vừa chọn đúng ======
 
-            if (currentIndex >= currentSequence.size()) {
+            if (result == GameCore.RESULT_ORDER_COMPLETE) {
                 // hoàn tất chuỗi -> cộng điểm bằng độ dài order, chuyển yêu cầu mới
-                myScore += currentSequenceLength;
-                sendScoreUpdate();
+                myScore = core.getScore();
                 updateScoreLabels();
                 nextRequest();
                 //playCorrect() from SoundManager
                 soundManager.playCorrect();
             }
-        } else {
+        } else if (result == GameCore.RESULT_WRONG) {
             // sai -> trừ 1 điểm, không chuyển yêu cầu
-            myScore = Math.max(0, myScore - 1);
-            sendScoreUpdate();
+            myScore = core.getScore();
             updateScoreLabels();
             shakeRequest();
             setCustomerEmotion("angry"); // Customer tức giận
@@ -368,49 +421,45 @@ public class ImprovedGameController {
         }
     }
 
-    private void sendScoreUpdate() {
-        // (isSinglePlayer sẽ luôn là false)
-        if (onSendMessage != null && !isSinglePlayer) {
-            // Sử dụng hằng số C2S (Client-to-Server)
-            Message scoreMsg = new Message(MESSAGE_TYPE_GAME_SCORE, String.valueOf(myScore));
-            onSendMessage.accept(scoreMsg);
-        }
+    /** Ghi lại một input event (phím, order đang làm, thời điểm tính từ lúc bắt đầu game) */
+    private void recordInput(int keyNumber) {
+        pendingInputs.append(keyNumber).append(',')
+                .append(core.getOrderIndex()).append(',')
+                .append(elapsedMillis()).append(';');
     }
 
-    /** Sinh chuỗi yêu cầu ngẫu nhiên (string) theo ma trận cố định với độ dài ngẫu nhiên */
-    private List<String> generateSequence() {
-        List<String> flat = new ArrayList<>(9);
-        for (String[] row : ITEM_MATRIX) flat.addAll(Arrays.asList(row));
-
-        // Random độ dài từ MIN_SEQUENCE_LEN đến MAX_SEQUENCE_LEN
-        ThreadLocalRandom rnd = ThreadLocalRandom.current();
-        int len = rnd.nextInt(MIN_SEQUENCE_LEN, MAX_SEQUENCE_LEN + 1);
-        currentSequenceLength = len; // Lưu lại để tính điểm
+    /** Số ms đã trôi qua kể từ khi bắt đầu game (đồng hồ của GameCore) */
+    private long elapsedMillis() {
+        return System.currentTimeMillis() - gameStartMillis;
+    }
 
-        List<String> seq = new ArrayList<>(len);
-        for (int i = 0; i < len; i++) {
-            seq.add(flat.get(rnd.nextInt(flat.size())));
+    /**
+     * Gửi batch input event đang chờ lên server; server tự tính điểm từ các event này.
+     * Kèm điểm client tự tính ("|score") để server đối chiếu và epoch resync ("|epoch")
+     */
+    private void flushInputs() {
+        if (pendingInputs.length() == 0) return;
+        // (isSinglePlayer sẽ luôn là false)
+        if (onSendMessage != null && !isSinglePlayer) {
+            pendingInputs.append('|').append(core.getScore()).append('|').append(resyncEpoch);
+            onSendMessage.accept(new Message(MESSAGE_TYPE_GAME_INPUT, pendingInputs.toString()));
         }
-        return seq;
+        pendingInputs.setLength(0);
     }
 
-    /** Tính allowedTimeSeconds theo độ khó: 5s – mỗi 15s giảm 1s, tối thiểu 1s */
+    /** Tính allowedTimeSeconds theo độ khó (xem GameCore.allowedSeconds) */
     private void recomputeAllowedTime() {
-        long elapsed = (System.currentTimeMillis() - gameStartMillis) / 1000; // s
-        long steps = elapsed / 15; // mỗi 15s giảm 1
-        double t = 15.0 - steps;
-        allowedTimeSeconds = Math.max(MIN_ALLOWED, t);
+        allowedTimeSeconds = GameCore.allowedSeconds(Math.max(0, elapsedMillis()));
         timeLabel.setText(String.format("Time/Req: %.1fs", allowedTimeSeconds));
     }
 
-    /** Bắt đầu một yêu cầu mới */
+    /** Hiển thị order hiện tại của GameCore (ma trận 3x3 = SpawnedItem.AVAILABLE_ITEMS) */
     private void nextRequest() {
         // Chốt độ khó tại thời điểm ra đề
         recomputeAllowedTime();
 
-        currentSequence = generateSequence(); // Random length
-        currentIndex = 0;
-        requestLabel.setText(renderSequence(currentSequence, currentIndex));
+        currentSequence = orders.orderItems(core.getOrderIndex());
+        requestLabel.setText(renderSequence(currentSequence, core.getPosition()));
         requestLabel.setTextFill(Color.web("#2c3e50"));
         // Reset về style mặc định
         requestLabel.setStyle(
@@ -427,7 +476,6 @@ public class ImprovedGameController {
 
         // Reset/bắt timer cho yêu cầu này
         if (roundTimer != null) roundTimer.stop();
-        roundStartMillis = System.currentTimeMillis();
 
         roundTimer = new Timeline(
                 new KeyFrame(Duration.ZERO, e -> updateRoundCountdown()),
@@ -460,27 +508,26 @@ public class ImprovedGameController {
     private void updateRoundCountdown() {
         if (gameEnded) return;
 
-        long elapsedMs = System.currentTimeMillis() - roundStartMillis;
-        double remain = allowedTimeSeconds - (elapsedMs / 1000.0);
-        if (remain <= 0) {
+        long now = Math.max(0, elapsedMillis());
+        if (core.advanceTime(now)) {
             // Hết thời gian của yêu cầu này: KHÔNG trừ điểm, chỉ chuyển yêu cầu mới
             nextRequest();
             setCustomerEmotion("neutral");
             return;
         }
+        double remain = core.getOrderRemainingMillis(now) / 1000.0;
         customerTimerLabel.setText(String.format("Remain: %.1fs", Math.max(0, remain)));
         customerBar.setProgress(Math.max(0, remain / Math.max(1.0, allowedTimeSeconds)));
         // cập nhật tiến độ trong label
-        requestLabel.setText(renderSequence(currentSequence, currentIndex));
+        requestLabel.setText(renderSequence(currentSequence, core.getPosition()));
     }
 
     /** Cập nhật thời gian còn lại của màn chơi (60 giây) */
     private void updateGameTimer() {
         if (gameEnded) return;
 
-        long elapsedMs = System.currentTimeMillis() - gameStartMillis;
-        double elapsedSeconds = elapsedMs / 1000.0;
-        double remainSeconds = GAME_DURATION_SECONDS - elapsedSeconds;
+        double elapsedSeconds = Math.max(0, elapsedMillis()) / 1000.0;
+        double remainSeconds = GameCore.GAME_DURATION_SECONDS - elapsedSeconds;
 
         if (remainSeconds <= 0) {
             // Hết thời gian chơi -> kết thúc game
@@ -504,6 +551,7 @@ public class ImprovedGameController {
     /** Kết thúc game */
     private void endGame() {
         gameEnded = true;
+        flushInputs();
         stopAllTimers();
 
         // Hiển thị màn hình game over
@@ -623,6 +671,7 @@ public class ImprovedGameController {
         if (roundTimer != null) roundTimer.stop();
         if (hudTicker != null) hudTicker.stop();
         if (gameTimer != null) gameTimer.stop();
+        if (inputFlushTicker != null) inputFlushTicker.stop();
     }
 
     /** Set customer emotion (happy/neutral/angry) */
@@ -861,8 +910,130 @@ public class ImprovedGameController {
 
         // Parse game state: remainingItems|timeout|player1:score1|player2:score2
         String data = message.getData().toString();
-        GameStateData gameState = parseGameState(data);
+        applyGameState(parseGameState(data));
+    }
+
+    /** Called when receiving GAME_STATE_DELTA from server */
+    public void handleGameStateDelta(Message message) {
+        if (timeLabel == null || scoreLabel == null) {
+            System.out.println("WARN: Received GAME_STATE_DELTA before game screen is loaded. Ignoring.");
+            return;
+        }
+
+        String data = message.getData();
+        int seq = GameStateDelta.seqOf(data);
+        int baseSeq = GameStateDelta.baseSeqOf(data);
+
+        Map<String, String> base = null;
+        if (baseSeq != GameStateDelta.KEYFRAME) {
+            base = receivedSnapshots.get(baseSeq);
+            if (base == null) {
+                // Mất baseline -> ACK 0 để server gửi keyframe
+                sendStateAck(GameStateDelta.KEYFRAME);
+                return;
+            }
+        }
+
+        Map<String, String> snapshot = GameStateDelta.apply(base, data);
+        receivedSnapshots.put(seq, snapshot);
+        receivedSnapshots.keySet().removeIf(s -> s <= seq - SNAPSHOT_HISTORY);
+        sendStateAck(seq);
+
+        applyGameState(snapshotToGameState(snapshot));
+    }
+
+    /**
+     * Called when receiving GAME_RESYNC: server rejected late inputs, so its GameCore differs.
+     * Format: epoch;score;orderIndex;position
+     * Batches already sent are dropped by the server; inputs not sent yet are replayed
+     * on the server state so both sides apply the same events from here.
+     */
+    public void handleResync(Message message) {
+        if (core == null || gameEnded) return;
+
+        String[] parts = message.getData().split(";");
+        if (parts.length < 4) {
+            System.err.println("Invalid GAME_RESYNC data: " + message.getData());
+            return;
+        }
+        try {
+            int epoch = Integer.parseInt(parts[0]);
+            int score = Integer.parseInt(parts[1]);
+            int orderIndex = Integer.parseInt(parts[2]);
+            int position = Integer.parseInt(parts[3]);
+            if (epoch <= resyncEpoch) return;
+
+            resyncEpoch = epoch;
+            core.resync(orderIndex, position, score, Math.max(0, elapsedMillis()));
+            replayPendingInputs();
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid GAME_RESYNC data: " + message.getData());
+            return;
+        }
+
+        myScore = core.getScore();
+        updateScoreLabels();
+        if (requestLabel != null) {
+            nextRequest();
+        }
+    }
+
+    /** Áp dụng lại các input chưa gửi ("key,orderIndex,clientTimeMs;") lên GameCore vừa resync */
+    private void replayPendingInputs() {
+        int pos = 0;
+        int length = pendingInputs.length();
+        while (pos < length) {
+            int next = pendingInputs.indexOf(";", pos);
+            if (next < 0) next = length;
+            int comma1 = pendingInputs.indexOf(",", pos);
+            int comma2 = comma1 < 0 ? -1 : pendingInputs.indexOf(",", comma1 + 1);
+            if (comma1 >= 0 && comma2 >= 0 && comma2 < next) {
+                int keyNumber = Integer.parseInt(pendingInputs.substring(pos, comma1));
+                int orderIndex = Integer.parseInt(pendingInputs.substring(comma1 + 1, comma2));
+                core.apply(keyNumber, orderIndex);
+            }
+            pos = next + 1;
+        }
+    }
+
+    private void sendStateAck(int seq) {
+        if (onSendMessage != null && !isSinglePlayer) {
+            onSendMessage.accept(new Message(MESSAGE_TYPE_GAME_STATE_ACK, String.valueOf(seq)));
+        }
+    }
+
+    /**
+     * Convert snapshot fields into the same data the legacy format produces
+     */
+    private GameStateData snapshotToGameState(Map<String, String> snapshot) {
+        GameStateData state = new GameStateData();
+        state.myScore = this.myScore;
+        state.opponentScore = this.opponentScore;
+
+        try {
+            state.timeout = Double.parseDouble(snapshot.getOrDefault(GameStateDelta.FIELD_TIME_LEFT, "0"));
+        } catch (NumberFormatException e) {
+            state.timeout = 0;
+        }
+
+        for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+            if (!entry.getKey().startsWith(GameStateDelta.PREFIX_SCORE)) continue;
+            String playerName = entry.getKey().substring(GameStateDelta.PREFIX_SCORE.length());
+            try {
+                int score = Integer.parseInt(entry.getValue());
+                if (playerName.equals(this.myUsername)) {
+                    state.myScore = score;
+                } else {
+                    state.opponentScore = score;
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid score format in GAME_STATE_DELTA: " + entry);
+            }
+        }
+        return state;
+    }
 
+    private void applyGameState(GameStateData gameState) {
         if (gameState != null) {
             // Update time if available
             if (gameState.timeout > 0) {
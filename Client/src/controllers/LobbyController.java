@@ -1,11 +1,9 @@
 package controllers;
 
 import javafx.application.Platform;
-import javafx.animation.Timeline;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
@@ -14,10 +12,10 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import models.Message;
 import network.NetworkManager;
 import utils.JsonParser;
+import utils.LobbyStateStore;
 import utils.RoomUpdateHandler;
 import utils.RoomUpdateHandler.*;
 import utils.UIHelper;
@@ -26,6 +24,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static constants.GameConstants.*;
 
@@ -41,15 +41,20 @@ public class LobbyController {
     private String currentRoomId;
     private String currentRoomCreator;
     private List<String> playersInRoom;
-    private List<Map<String, String>> friendsList;
-    private List<Map<String, String>> availableRooms;
 
     // Track sent requests and received requests
     private List<String> sentFriendRequests;
-    private List<String> receivedFriendRequests;
 
-    private Timeline friendsRefreshTimer;
-    private Timeline roomsRefreshTimer;
+    // Friends, requests and rooms; views are updated row by row
+    private final LobbyStateStore store = new LobbyStateStore();
+    private final RowBinder<FriendInfo> friendRows;
+    private final RowBinder<String> requestRows;
+    private final RowBinder<RoomInfo> roomRows;
+
+    private boolean subscribedToPresence = false;
+    private boolean subscribedToRooms = false;
+    private boolean quickMatchQueued = false;
+    private Button quickMatchButton;
 
     // UI Components
     private VBox playerSlotsBox;
@@ -73,12 +78,19 @@ public class LobbyController {
         this.onGameStart = onGameStart;
         this.onBackToMenu = onBackToMenu;
         this.playersInRoom = new ArrayList<>();
-        this.friendsList = new ArrayList<>();
-        this.availableRooms = new ArrayList<>();
         this.sentFriendRequests = new ArrayList<>();
-        this.receivedFriendRequests = new ArrayList<>();
         this.playerLabels = new Label[2];
         this.playerSlots = new HBox[2];
+
+        this.friendRows = new RowBinder<>(() -> friendsListBox,
+                friend -> createFriendItem(friend.toMap()), this::createNoFriendsLabel);
+        this.requestRows = new RowBinder<>(() -> friendRequestsBox,
+                this::createFriendRequestItem, this::createNoRequestsLabel);
+        this.roomRows = new RowBinder<>(() -> roomsListBox,
+                room -> createRoomItem(room.toMap()), this::createNoRoomsLabel);
+        store.getFriends().setListener(friendRows);
+        store.getFriendRequests().setListener(requestRows);
+        store.getRooms().setListener(roomRows);
     }
 
     public void show(String username, String roomId, List<String> initialPlayers) {
@@ -93,51 +105,51 @@ public class LobbyController {
         }
 
         createLobbyUI();
+        // Màn hình mới: vẽ lại toàn bộ một lần, sau đó chỉ cập nhật từng dòng
+        friendRows.renderAll(store.getFriends());
+        requestRows.renderAll(store.getFriendRequests());
+        roomRows.renderAll(store.getRooms());
 
-        // Request friend list and room list from server
-        network.sendMessage(new Message(MESSAGE_TYPE_GET_FRIENDS, ""));
         network.sendMessage(new Message(MESSAGE_TYPE_GET_FRIEND_REQUESTS, ""));
-        if (!inRoom) {
-            network.sendMessage(new Message(MESSAGE_TYPE_GET_ROOM_LIST, ""));
-        }
-
-        startAutoRefreshFriendsAndRooms();
+        subscribeLobbyUpdates();
     }
 
     /**
-     * Start auto-refresh timers for friends and rooms
+     * Subscribe to friend presence and room list updates (server pushes, no polling)
      */
-    private void startAutoRefreshFriendsAndRooms() {
-        // Stop existing timers if any
-        stopAutoRefresh();
+    private void subscribeLobbyUpdates() {
+        unsubscribeLobbyUpdates();
 
-        // Refresh friends list every 5 seconds
-        friendsRefreshTimer = new Timeline(new KeyFrame(Duration.seconds(5), e -> {
-            network.sendMessage(new Message(MESSAGE_TYPE_GET_FRIENDS, ""));
-        }));
-        friendsRefreshTimer.setCycleCount(Animation.INDEFINITE);
-        friendsRefreshTimer.play();
+        // Server trả về danh sách bạn rồi đẩy từng thay đổi
+        subscribedToPresence = true;
+        network.sendMessage(new Message(MESSAGE_TYPE_SUBSCRIBE_PRESENCE, ""));
 
+        // Room list: server pushes changes while we are browsing
         if (!inRoom) {
-            roomsRefreshTimer = new Timeline(new KeyFrame(Duration.seconds(3), e -> {
-                network.sendMessage(new Message(MESSAGE_TYPE_GET_ROOM_LIST, ""));
-            }));
-            roomsRefreshTimer.setCycleCount(Animation.INDEFINITE);
-            roomsRefreshTimer.play();
+            subscribeToRooms(store.getRoomListVersion());
         }
     }
 
     /**
-     * Stop auto-refresh timers
+     * Subscribe to room list deltas
+     * @param sinceVersion last version we have (-1 = ask for a snapshot)
+     */
+    private void subscribeToRooms(long sinceVersion) {
+        subscribedToRooms = true;
+        network.sendMessage(new Message(MESSAGE_TYPE_SUBSCRIBE_ROOMS, String.valueOf(sinceVersion)));
+    }
+
+    /**
+     * Stop friend presence and room list updates
      */
-    private void stopAutoRefresh() {
-        if (friendsRefreshTimer != null) {
-            friendsRefreshTimer.stop();
-            friendsRefreshTimer = null;
+    private void unsubscribeLobbyUpdates() {
+        if (subscribedToPresence) {
+            subscribedToPresence = false;
+            network.sendMessage(new Message(MESSAGE_TYPE_UNSUBSCRIBE_PRESENCE, ""));
         }
-        if (roomsRefreshTimer != null) {
-            roomsRefreshTimer.stop();
-            roomsRefreshTimer = null;
+        if (subscribedToRooms) {
+            subscribedToRooms = false;
+            network.sendMessage(new Message(MESSAGE_TYPE_UNSUBSCRIBE_ROOMS, ""));
         }
     }
 
@@ -329,7 +341,11 @@ public class LobbyController {
             "-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 10, 0, 0, 3);"
         ));
         backButton.setOnAction(e -> {
-            stopAutoRefresh();
+            unsubscribeLobbyUpdates();
+            if (quickMatchQueued) {
+                network.sendMessage(new Message(MESSAGE_TYPE_CANCEL_QUICK_MATCH, ""));
+                quickMatchQueued = false;
+            }
             if (onBackToMenu != null) {
                 onBackToMenu.run();
             }
@@ -364,7 +380,27 @@ public class LobbyController {
             network.sendMessage(new Message(MESSAGE_TYPE_CREATE_ROOM, ""));
         });
 
-        actions.getChildren().addAll(backButton, createRoomButton);
+        quickMatchButton = new Button("QUICK MATCH");
+        quickMatchButton.setPrefWidth(180);
+        quickMatchButton.setPrefHeight(50);
+        quickMatchButton.setFont(Font.font("Arial", FontWeight.BOLD, 16));
+        quickMatchButton.setStyle(
+            "-fx-background-color: linear-gradient(to bottom, #2980b9, #2471a3);" +
+            "-fx-text-fill: white;" +
+            "-fx-background-radius: 10px;" +
+            "-fx-cursor: hand;" +
+            "-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 10, 0, 0, 3);"
+        );
+        quickMatchButton.setOnAction(e -> {
+            if (quickMatchQueued) {
+                network.sendMessage(new Message(MESSAGE_TYPE_CANCEL_QUICK_MATCH, ""));
+            } else {
+                network.sendMessage(new Message(MESSAGE_TYPE_QUICK_MATCH, ""));
+            }
+        });
+        quickMatchQueued = false;
+
+        actions.getChildren().addAll(backButton, createRoomButton, quickMatchButton);
         return actions;
     }
 
@@ -658,7 +694,7 @@ public class LobbyController {
             "-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 10, 0, 0, 3);"
         ));
         leaveButton.setOnAction(e -> {
-            stopAutoRefresh();
+            unsubscribeLobbyUpdates();
             network.sendMessage(new Message(MESSAGE_TYPE_LEAVE_ROOM, currentRoomId));
             show(currentUsername, null, new ArrayList<>());
         });
@@ -689,7 +725,7 @@ public class LobbyController {
             "-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 10, 0, 0, 3);"
         ));
         startGameButton.setOnAction(e -> {
-            stopAutoRefresh();
+            unsubscribeLobbyUpdates();
             network.sendMessage(new Message(MESSAGE_TYPE_START_GAME, currentRoomId));
         });
         startGameButton.setDisable(playersInRoom.size() < 2);
@@ -790,51 +826,31 @@ public class LobbyController {
     }
 
     /**
-     * Update friends list display
+     * Re-render all friend rows (invite buttons depend on who is in the room)
      */
     private void updateFriendsList() {
-        if (friendsListBox == null) {
-            return;
-        }
-
-        friendsListBox.getChildren().clear();
-
-        if (friendsList.isEmpty()) {
-            Label noFriends = new Label("No friends yet");
-            noFriends.setTextFill(Color.web("#95a5a6"));
-            friendsListBox.getChildren().add(noFriends);
-            return;
-        }
-
-        for (Map<String, String> friend : friendsList) {
-            HBox friendItem = createFriendItem(friend);
-            friendsListBox.getChildren().add(friendItem);
-        }
+        friendRows.renderAll(store.getFriends());
     }
 
-    /**
-     * Update room list display
-     */
-    private void updateRoomsList() {
-        if (roomsListBox == null) {
-            return;
-        }
-
-        roomsListBox.getChildren().clear();
+    private Node createNoFriendsLabel() {
+        Label noFriends = new Label("No friends yet");
+        noFriends.setTextFill(Color.web("#95a5a6"));
+        return noFriends;
+    }
 
-        if (availableRooms.isEmpty()) {
-            Label noRooms = new Label("No rooms available. Create one!");
-            noRooms.setTextFill(Color.web("#FFFFFF"));
-            noRooms.setFont(Font.font("Arial", FontWeight.BOLD, 16));
-            noRooms.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.8), 3, 0, 0, 2);");
-            roomsListBox.getChildren().add(noRooms);
-            return;
-        }
+    private Node createNoRoomsLabel() {
+        Label noRooms = new Label("No rooms available. Create one!");
+        noRooms.setTextFill(Color.web("#FFFFFF"));
+        noRooms.setFont(Font.font("Arial", FontWeight.BOLD, 16));
+        noRooms.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.8), 3, 0, 0, 2);");
+        return noRooms;
+    }
 
-        for (Map<String, String> room : availableRooms) {
-            HBox roomItem = createRoomItem(room);
-            roomsListBox.getChildren().add(roomItem);
-        }
+    private Node createNoRequestsLabel() {
+        Label noRequests = new Label("No pending requests");
+        noRequests.setTextFill(Color.web("#95a5a6"));
+        noRequests.setFont(Font.font("Arial", 11));
+        return noRequests;
     }
 
     /**
@@ -944,7 +960,7 @@ public class LobbyController {
                         playersInRoom.add(playerWhoJoined);
                         Platform.runLater(() -> {
                             updatePlayerSlots();
-                            updateFriendsList();
+                            friendRows.refresh(playerWhoJoined, store.getFriends());
                         });
                     }
                 }
@@ -957,7 +973,7 @@ public class LobbyController {
                     playersInRoom.remove(playerWhoLeft);
                     Platform.runLater(() -> {
                         updatePlayerSlots();
-                        updateFriendsList();
+                        friendRows.refresh(playerWhoLeft, store.getFriends());
                     });
                 }
                 break;
@@ -968,9 +984,7 @@ public class LobbyController {
      * Handle friend list update from server
      */
     public void handleFriendListUpdate(Message message) {
-        String jsonData = message.getData();
-        parseFriendsList(jsonData);
-        updateFriendsList();
+        store.applyFriendList(message.getData());
     }
 
     /**
@@ -997,9 +1011,49 @@ public class LobbyController {
      * Handle room list update from server
      */
     public void handleRoomListUpdate(Message message) {
-        String jsonData = message.getData();
-        parseRoomsList(jsonData);
-        updateRoomsList();
+        store.applyRoomList(message.getData());
+    }
+
+    /**
+     * Handle room list delta from server
+     * Format: "version|A/U|{room}", "version|R|roomId", "version|S|[rooms]"
+     */
+    public void handleRoomListDelta(Message message) {
+        if (!subscribedToRooms) {
+            return;
+        }
+        if (!store.applyRoomDelta(message.getData())) {
+            // Mất delta: xin lại từ version đang có
+            System.out.println("Room list gap after version " + store.getRoomListVersion() + ", resyncing");
+            subscribeToRooms(store.getRoomListVersion());
+        }
+    }
+
+    /**
+     * Handle quick match queue status
+     * Format: "queued;queueSize", "cancelled", "error;reason"
+     */
+    public void handleQuickMatchStatus(Message message) {
+        String[] parts = message.getData().split(";", 2);
+        switch (parts[0]) {
+            case "queued":
+                quickMatchQueued = true;
+                if (quickMatchButton != null) {
+                    quickMatchButton.setText(parts.length > 1 ? "SEARCHING (" + parts[1] + ")" : "SEARCHING...");
+                }
+                break;
+            case "cancelled":
+                quickMatchQueued = false;
+                if (quickMatchButton != null) quickMatchButton.setText("QUICK MATCH");
+                break;
+            case "error":
+                quickMatchQueued = false;
+                if (quickMatchButton != null) quickMatchButton.setText("QUICK MATCH");
+                UIHelper.showError("Quick Match", parts.length > 1 ? parts[1] : "Failed");
+                break;
+            default:
+                break;
+        }
     }
 
     /**
@@ -1024,14 +1078,6 @@ public class LobbyController {
         }
     }
 
-    /**
-     * Handle join request approved
-     */
-    public void handleJoinApproved(Message message) {
-        String roomId = message.getData();
-        network.sendMessage(new Message(MESSAGE_TYPE_JOIN_ROOM, roomId));
-    }
-
     /**
      * Handle join request rejected
      */
@@ -1062,42 +1108,6 @@ public class LobbyController {
         updatePlayerSlots();
     }
 
-    /**
-     * Parse friends list from JSON
-     */
-    private void parseFriendsList(String json) {
-        friendsList.clear();
-
-        // Note: This parses the old format without online status
-        // For backward compatibility, we'll manually parse or use basic parsing
-        if (JsonParser.isEmptyArray(json)) return;
-
-        String[] friendObjects = JsonParser.splitJsonArray(json);
-        for (String friendJson : friendObjects) {
-            Map<String, String> friend = new HashMap<>();
-            String username = JsonParser.extractString(friendJson, "username");
-            String userId = String.valueOf(JsonParser.extractInt(friendJson, "user_id", 0));
-
-            if (username != null) {
-                friend.put("username", username);
-                friend.put("user_id", userId);
-                friendsList.add(friend);
-            }
-        }
-    }
-
-    /**
-     * Parse rooms list from JSON
-     */
-    private void parseRoomsList(String json) {
-        List<RoomInfo> rooms = RoomUpdateHandler.parseRoomsList(json);
-
-        availableRooms.clear();
-        for (RoomInfo room : rooms) {
-            availableRooms.add(room.toMap());
-        }
-    }
-
     // ==================== FRIEND MANAGEMENT HANDLERS ====================
 
     /**
@@ -1176,14 +1186,13 @@ public class LobbyController {
         HBox.setHgrow(spacer, Priority.ALWAYS);
 
         // Check if already friend
-        boolean isAlreadyFriend = friendsList.stream()
-            .anyMatch(f -> username.equals(f.get("username")));
+        boolean isAlreadyFriend = store.getFriends().contains(username);
 
         // Check if already sent request
         boolean hasSentRequest = sentFriendRequests.contains(username);
 
         // Check if received request from this user
-        boolean hasReceivedRequest = receivedFriendRequests.contains(username);
+        boolean hasReceivedRequest = store.getFriendRequests().contains(username);
 
         Button addButton = new Button("➕");
         addButton.setFont(Font.font(14));
@@ -1274,30 +1283,7 @@ public class LobbyController {
      * Handle friend requests list
      */
     public void handleFriendRequests(Message message) {
-        if (friendRequestsBox == null) {
-            return;
-        }
-
-        String json = message.getData();
-        List<String> requests = parseSimpleStringArray(json);
-
-        // Update received requests list
-        receivedFriendRequests.clear();
-        receivedFriendRequests.addAll(requests);
-
-        friendRequestsBox.getChildren().clear();
-
-        if (requests.isEmpty()) {
-            Label noRequests = new Label("No pending requests");
-            noRequests.setTextFill(Color.web("#95a5a6"));
-            noRequests.setFont(Font.font("Arial", 11));
-            friendRequestsBox.getChildren().add(noRequests);
-        } else {
-            for (String fromUser : requests) {
-                HBox requestItem = createFriendRequestItem(fromUser);
-                friendRequestsBox.getChildren().add(requestItem);
-            }
-        }
+        store.applyFriendRequests(parseSimpleStringArray(message.getData()));
     }
 
     /**
@@ -1326,12 +1312,7 @@ public class LobbyController {
      */
     public void handleFriendRequestReceived(Message message) {
         String fromUser = message.getData();
-        if (!receivedFriendRequests.contains(fromUser)) {
-            receivedFriendRequests.add(fromUser);
-        }
-
-        // Refresh friend requests list
-        network.sendMessage(new Message(MESSAGE_TYPE_GET_FRIEND_REQUESTS, ""));
+        store.getFriendRequests().put(fromUser, fromUser);
 
         Platform.runLater(() -> {
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
@@ -1351,8 +1332,7 @@ public class LobbyController {
         // Remove from sent requests if we sent it
         sentFriendRequests.removeIf(username -> data.contains(username));
 
-        // Refresh friends list
-        network.sendMessage(new Message(MESSAGE_TYPE_GET_FRIENDS, ""));
+        // Danh sách bạn được cập nhật qua sự kiện presence
         network.sendMessage(new Message(MESSAGE_TYPE_GET_FRIEND_REQUESTS, ""));
 
         Platform.runLater(() -> {
@@ -1399,7 +1379,7 @@ public class LobbyController {
                 "-fx-padding: 6px 12px; -fx-background-radius: 5px;"));
         acceptButton.setOnAction(e -> {
             network.sendMessage(new Message(MESSAGE_TYPE_ACCEPT_FRIEND, fromUser));
-            friendRequestsBox.getChildren().remove(item);
+            store.getFriendRequests().remove(fromUser);
         });
 
         Button rejectButton = new Button("Reject");
@@ -1416,7 +1396,7 @@ public class LobbyController {
                 "-fx-padding: 6px 12px; -fx-background-radius: 5px;"));
         rejectButton.setOnAction(e -> {
             network.sendMessage(new Message(MESSAGE_TYPE_REJECT_FRIEND, fromUser));
-            friendRequestsBox.getChildren().remove(item);
+            store.getFriendRequests().remove(fromUser);
         });
 
         item.getChildren().addAll(nameLabel, spacer, acceptButton, rejectButton);
@@ -1427,21 +1407,15 @@ public class LobbyController {
      * Handle friend list update with online status
      */
     public void handleFriendList(Message message) {
-        String json = message.getData();
-        parseFriendListWithOnline(json);
-        updateFriendsList();
+        store.applyFriendList(message.getData());
     }
 
     /**
-     * Parse friend list with online status
+     * Handle pushed presence event
+     * Format: "username;online|offline|added|removed"
      */
-    private void parseFriendListWithOnline(String json) {
-        List<FriendInfo> friends = RoomUpdateHandler.parseFriendsList(json);
-
-        friendsList.clear();
-        for (FriendInfo friend : friends) {
-            friendsList.add(friend.toMap());
-        }
+    public void handleFriendStatusChanged(Message message) {
+        store.applyFriendStatus(message.getData());
     }
 
     /**
@@ -1593,5 +1567,87 @@ public class LobbyController {
             }
         }
     }
-}
 
+    /**
+     * Keeps one HBox per store row in a VBox: an event replaces, adds or
+     * removes only the affected row. The VBox is looked up on every event
+     * because createLobbyUI builds a new one each time the lobby is shown.
+     */
+    private static final class RowBinder<V> implements LobbyStateStore.Listener<V> {
+        private final Supplier<VBox> box;
+        private final Function<V, HBox> rowFactory;
+        private final Supplier<Node> placeholder;
+        private final Map<String, HBox> rows = new HashMap<>();
+
+        RowBinder(Supplier<VBox> box, Function<V, HBox> rowFactory, Supplier<Node> placeholder) {
+            this.box = box;
+            this.rowFactory = rowFactory;
+            this.placeholder = placeholder;
+        }
+
+        /**
+         * Rebuild every row (new screen)
+         */
+        void renderAll(LobbyStateStore.Table<V> table) {
+            rows.clear();
+            VBox target = box.get();
+            if (target == null) return;
+            target.getChildren().clear();
+            for (Map.Entry<String, V> entry : table.asMap().entrySet()) {
+                HBox row = rowFactory.apply(entry.getValue());
+                rows.put(entry.getKey(), row);
+                target.getChildren().add(row);
+            }
+            if (rows.isEmpty()) {
+                target.getChildren().add(placeholder.get());
+            }
+        }
+
+        /**
+         * Re-render one row whose look depends on state outside the store
+         */
+        void refresh(String key, LobbyStateStore.Table<V> table) {
+            V value = table.get(key);
+            if (value != null) updated(key, value);
+        }
+
+        @Override
+        public void added(String key, V value) {
+            VBox target = box.get();
+            if (target == null) return;
+            if (rows.isEmpty()) target.getChildren().clear(); // bỏ placeholder
+            HBox row = rowFactory.apply(value);
+            rows.put(key, row);
+            target.getChildren().add(row);
+        }
+
+        @Override
+        public void updated(String key, V value) {
+            VBox target = box.get();
+            HBox old = rows.get(key);
+            if (target == null || old == null) {
+                added(key, value);
+                return;
+            }
+            int index = target.getChildren().indexOf(old);
+            HBox row = rowFactory.apply(value);
+            rows.put(key, row);
+            if (index >= 0) {
+                target.getChildren().set(index, row);
+            } else {
+                target.getChildren().add(row);
+            }
+        }
+
+        @Override
+        public void removed(String key) {
+            VBox target = box.get();
+            HBox old = rows.remove(key);
+            if (target == null || old == null) return;
+            target.getChildren().remove(old);
+            if (rows.isEmpty()) {
+                target.getChildren().add(placeholder.get());
+            }
+        }
+    }
+}
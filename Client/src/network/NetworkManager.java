@@ -1,5 +1,6 @@
 package network;
 
+import game.ClockSync;
 import models.Message;
 
 import java.io.*;
@@ -20,7 +21,12 @@ public class NetworkManager {
     private ObjectInputStream in;
     private Consumer<Message> messageHandler;
     private Thread listenerThread;
+    private Thread clockSyncThread;
     private boolean connected = false;
+
+    // Đồng bộ đồng hồ với server (PING/PONG kiểu NTP)
+    private static final long CLOCK_SYNC_INTERVAL_MILLIS = 2000;
+    private final ClockSync clock = new ClockSync();
     
     private String serverHost = "localhost";
     private int serverPort = 8888;
@@ -70,6 +76,7 @@ public class NetworkManager {
             
             connected = true;
             startListening();
+            startClockSync();
             
             System.out.println("Connected to server");
             return true;
@@ -89,7 +96,10 @@ public class NetworkManager {
             try {
                 while (connected && !Thread.currentThread().isInterrupted()) {
                     Message message = (Message) in.readObject();
-                    
+
+                    // PING/PONG xử lý ngay trên thread này để timestamp chính xác, không chuyển lên UI
+                    if (handleClockMessage(message)) continue;
+
                     if (messageHandler != null) {
                         messageHandler.accept(message);
                     }
@@ -109,6 +119,64 @@ public class NetworkManager {
         listenerThread.start();
     }
     
+    /**
+     * Gửi PING định kỳ để ước lượng độ lệch đồng hồ và RTT tới server
+     */
+    private void startClockSync() {
+        clockSyncThread = new Thread(() -> {
+            while (connected && !Thread.currentThread().isInterrupted()) {
+                sendMessage(new Message(MESSAGE_TYPE_PING, String.valueOf(System.currentTimeMillis())));
+                try {
+                    Thread.sleep(CLOCK_SYNC_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "clock-sync");
+        clockSyncThread.setDaemon(true);
+        clockSyncThread.start();
+    }
+
+    /**
+     * PING từ server -> trả PONG "t0;t1;t2"; PONG cho PING của mình -> thêm mẫu đồng hồ
+     * @return true nếu message đã được xử lý
+     */
+    private boolean handleClockMessage(Message message) {
+        long received = System.currentTimeMillis();
+        if (MESSAGE_TYPE_PING.equals(message.getType())) {
+            sendMessage(new Message(MESSAGE_TYPE_PONG,
+                    message.getData() + ";" + received + ";" + System.currentTimeMillis()));
+            return true;
+        }
+        if (MESSAGE_TYPE_PONG.equals(message.getType())) {
+            String[] parts = message.getData().split(";");
+            if (parts.length == 3) {
+                try {
+                    clock.addSample(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                            Long.parseLong(parts[2]), received);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid PONG: " + message.getData());
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Đổi một mốc giờ server sang giờ máy này
+     */
+    public long serverToLocalTime(long serverMillis) {
+        return clock.toLocal(serverMillis);
+    }
+
+    /**
+     * RTT / độ lệch đồng hồ tới server
+     */
+    public ClockSync getClockSync() {
+        return clock;
+    }
+
     /**
      * Send message to server
      */
@@ -146,6 +214,9 @@ public class NetworkManager {
         if (listenerThread != null) {
             listenerThread.interrupt();
         }
+        if (clockSyncThread != null) {
+            clockSyncThread.interrupt();
+        }
         
         try {
             if (out != null) out.close();
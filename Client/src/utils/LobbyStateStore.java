@@ -0,0 +1,238 @@
+package utils;
+
+import utils.RoomUpdateHandler.FriendInfo;
+import utils.RoomUpdateHandler.RoomInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client-side state of the lobby: friends (by username), pending friend
+ * requests (by username) and rooms (by roomId).
+ * Server messages are applied as row-level changes; a view registers a
+ * {@link Listener} per table and only hears about the rows that actually
+ * changed. A full payload (friend list, room snapshot) is diffed against
+ * the current rows, so an unchanged row costs nothing to re-render.
+ * Must be used from the JavaFX application thread.
+ */
+public class LobbyStateStore {
+
+    /**
+     * Row-level change of one table
+     */
+    public interface Listener<V> {
+        void added(String key, V value);
+
+        void updated(String key, V value);
+
+        void removed(String key);
+    }
+
+    /**
+     * Rows keyed by id, in insertion order
+     */
+    public static class Table<V> {
+        private final Map<String, V> rows = new LinkedHashMap<>();
+        private Listener<V> listener;
+
+        public void setListener(Listener<V> listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Insert or update a row; no event if the value did not change
+         */
+        public void put(String key, V value) {
+            V previous = rows.put(key, value);
+            if (listener == null || value.equals(previous)) return;
+            if (previous == null) {
+                listener.added(key, value);
+            } else {
+                listener.updated(key, value);
+            }
+        }
+
+        public void remove(String key) {
+            if (rows.remove(key) != null && listener != null) {
+                listener.removed(key);
+            }
+        }
+
+        /**
+         * Replace all rows with a full payload, emitting only the difference
+         */
+        public void replaceAll(Map<String, V> next) {
+            List<String> gone = new ArrayList<>();
+            for (String key : rows.keySet()) {
+                if (!next.containsKey(key)) gone.add(key);
+            }
+            for (String key : gone) {
+                remove(key);
+            }
+            for (Map.Entry<String, V> entry : next.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        public V get(String key) {
+            return rows.get(key);
+        }
+
+        public boolean contains(String key) {
+            return rows.containsKey(key);
+        }
+
+        public Collection<V> values() {
+            return Collections.unmodifiableCollection(rows.values());
+        }
+
+        /**
+         * Read-only view of the rows, in order
+         */
+        public Map<String, V> asMap() {
+            return Collections.unmodifiableMap(rows);
+        }
+
+        public boolean isEmpty() {
+            return rows.isEmpty();
+        }
+    }
+
+    private final Table<FriendInfo> friends = new Table<>();
+    private final Table<String> friendRequests = new Table<>();
+    private final Table<RoomInfo> rooms = new Table<>();
+    private long roomListVersion = -1;
+
+    public Table<FriendInfo> getFriends() {
+        return friends;
+    }
+
+    public Table<String> getFriendRequests() {
+        return friendRequests;
+    }
+
+    public Table<RoomInfo> getRooms() {
+        return rooms;
+    }
+
+    /**
+     * Last applied room list version (-1 = none)
+     */
+    public long getRoomListVersion() {
+        return roomListVersion;
+    }
+
+    // ==================== FRIENDS ====================
+
+    /**
+     * Full friend list (S2C_FRIEND_LIST)
+     */
+    public void applyFriendList(String json) {
+        Map<String, FriendInfo> next = new LinkedHashMap<>();
+        for (FriendInfo friend : RoomUpdateHandler.parseFriendsList(json)) {
+            next.put(friend.getUsername(), friend);
+        }
+        friends.replaceAll(next);
+    }
+
+    /**
+     * Presence event (S2C_FRIEND_STATUS_CHANGED): "username;online|offline|added|removed"
+     */
+    public void applyFriendStatus(String data) {
+        String[] parts = data.split(";", 2);
+        if (parts.length < 2) return;
+        String username = parts[0];
+
+        switch (parts[1]) {
+            case "online":
+            case "offline":
+                if (friends.contains(username)) {
+                    friends.put(username, new FriendInfo(username, "online".equals(parts[1])));
+                }
+                break;
+            case "added":
+                if (!friends.contains(username)) {
+                    friends.put(username, new FriendInfo(username, false));
+                }
+                break;
+            case "removed":
+                friends.remove(username);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ==================== FRIEND REQUESTS ====================
+
+    /**
+     * Full list of pending requests (S2C_FRIEND_REQUESTS)
+     */
+    public void applyFriendRequests(List<String> usernames) {
+        Map<String, String> next = new LinkedHashMap<>();
+        for (String username : usernames) {
+            next.put(username, username);
+        }
+        friendRequests.replaceAll(next);
+    }
+
+    // ==================== ROOMS ====================
+
+    /**
+     * Full room list (S2C_ROOM_LIST); does not change the delta version
+     */
+    public void applyRoomList(String json) {
+        rooms.replaceAll(parseRooms(json));
+    }
+
+    /**
+     * Room list delta (S2C_ROOM_LIST_DELTA): "version|A/U|{room}", "version|R|roomId", "version|S|[rooms]"
+     * @return false if a delta is missing and the caller must re-subscribe from getRoomListVersion()
+     */
+    public boolean applyRoomDelta(String data) {
+        String[] parts = data.split("\\|", 3);
+        if (parts.length < 3) return true;
+        long version;
+        try {
+            version = Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+        String op = parts[1];
+        String payload = parts[2];
+
+        if ("S".equals(op)) {
+            rooms.replaceAll(parseRooms(payload));
+            roomListVersion = version;
+            return true;
+        }
+        if (version <= roomListVersion) {
+            return true; // Đã áp dụng (replay sau khi subscribe lại)
+        }
+        if (version != roomListVersion + 1) {
+            return false;
+        }
+        if ("R".equals(op)) {
+            rooms.remove(payload);
+        } else {
+            RoomInfo room = RoomUpdateHandler.parseRoom(payload);
+            if (room != null) {
+                rooms.put(room.getRoomId(), room);
+            }
+        }
+        roomListVersion = version;
+        return true;
+    }
+
+    private static Map<String, RoomInfo> parseRooms(String json) {
+        Map<String, RoomInfo> next = new LinkedHashMap<>();
+        for (RoomInfo room : RoomUpdateHandler.parseRoomsList(json)) {
+            next.put(room.getRoomId(), room);
+        }
+        return next;
+    }
+}
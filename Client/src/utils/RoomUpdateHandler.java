@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * Utility class to handle room update operations and reduce code duplication
@@ -96,19 +97,30 @@ public class RoomUpdateHandler {
 
         String[] roomObjects = JsonParser.splitJsonArray(json);
         for (String roomJson : roomObjects) {
-            String roomId = JsonParser.extractString(roomJson, "roomId");
-            String creator = JsonParser.extractString(roomJson, "creator");
-            int playerCount = JsonParser.extractInt(roomJson, "playerCount", 0);
-            int maxPlayers = JsonParser.extractInt(roomJson, "maxPlayers", 4);
-
-            if (roomId != null) {
-                rooms.add(new RoomInfo(roomId, creator, playerCount, maxPlayers));
+            RoomInfo room = parseRoom(roomJson);
+            if (room != null) {
+                rooms.add(room);
             }
         }
 
         return rooms;
     }
 
+    /**
+     * Parse a single room object from JSON
+     * @return null if the object has no roomId
+     */
+    public static RoomInfo parseRoom(String roomJson) {
+        String roomId = JsonParser.extractString(roomJson, "roomId");
+        if (roomId == null) {
+            return null;
+        }
+        String creator = JsonParser.extractString(roomJson, "creator");
+        int playerCount = JsonParser.extractInt(roomJson, "playerCount", 0);
+        int maxPlayers = JsonParser.extractInt(roomJson, "maxPlayers", 4);
+        return new RoomInfo(roomId, creator, playerCount, maxPlayers);
+    }
+
     /**
      * Parse invite message
      * Format: "inviterUsername;roomId"
@@ -176,6 +188,19 @@ public class RoomUpdateHandler {
             map.put("online", String.valueOf(online));
             return map;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FriendInfo)) return false;
+            FriendInfo other = (FriendInfo) o;
+            return online == other.online && Objects.equals(username, other.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, online);
+        }
     }
 
     public static class RoomInfo {
@@ -204,6 +229,20 @@ public class RoomUpdateHandler {
             map.put("maxPlayers", String.valueOf(maxPlayers));
             return map;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RoomInfo)) return false;
+            RoomInfo other = (RoomInfo) o;
+            return playerCount == other.playerCount && maxPlayers == other.maxPlayers
+                    && Objects.equals(roomId, other.roomId) && Objects.equals(creator, other.creator);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(roomId, creator, playerCount, maxPlayers);
+        }
     }
 
     public static class InviteInfo {
@@ -12,9 +12,13 @@ public class GameConstants {
     public static final String MESSAGE_TYPE_LEAVE_ROOM = "LEAVE_ROOM";
     public static final String MESSAGE_TYPE_START_GAME = "START_GAME";
     public static final String MESSAGE_TYPE_GAME_SCORE = "GAME_SCORE";
+    public static final String MESSAGE_TYPE_GAME_INPUT = "C2S_GAME_INPUT"; // Batch input event: "key,orderIndex,clientTimeMs;...|claimedScore|resyncEpoch"
     public static final String MESSAGE_TYPE_LEADERBOARD = "GET_LEADERBOARD";
     public static final String MESSAGE_TYPE_LOGOUT = "LOGOUT";
     public static final String MESSAGE_TYPE_GET_ROOM_LIST = "C2S_GET_ROOM_LIST";
+    public static final String MESSAGE_TYPE_SUBSCRIBE_ROOMS = "C2S_SUBSCRIBE_ROOMS"; // "lastVersion" (-1 = cần snapshot)
+    public static final String MESSAGE_TYPE_UNSUBSCRIBE_ROOMS = "C2S_UNSUBSCRIBE_ROOMS";
+    public static final String MESSAGE_TYPE_QUERY_ROOMS = "C2S_QUERY_ROOMS"; // "limit;cursor;filters;createdAfterMs", filters: notFull,friends
     public static final String MESSAGE_TYPE_REQUEST_JOIN = "C2S_REQUEST_JOIN";
     public static final String MESSAGE_TYPE_ACCEPT_JOIN = "C2S_ACCEPT_JOIN";
     public static final String MESSAGE_TYPE_REJECT_JOIN = "C2S_REJECT_JOIN";
@@ -25,12 +29,18 @@ public class GameConstants {
     public static final String MESSAGE_TYPE_GET_FRIENDS = "C2S_GET_FRIENDS";
     public static final String MESSAGE_TYPE_GET_FRIEND_REQUESTS = "C2S_GET_FRIEND_REQUESTS";
     public static final String MESSAGE_TYPE_REMOVE_FRIEND = "C2S_REMOVE_FRIEND";
+    public static final String MESSAGE_TYPE_SUBSCRIBE_PRESENCE = "C2S_SUBSCRIBE_PRESENCE"; // Trả về S2C_FRIEND_LIST rồi đẩy S2C_FRIEND_STATUS_CHANGED
+    public static final String MESSAGE_TYPE_UNSUBSCRIBE_PRESENCE = "C2S_UNSUBSCRIBE_PRESENCE";
     public static final String MESSAGE_TYPE_INVITE_TO_ROOM = "C2S_INVITE_TO_ROOM";
     public static final String MESSAGE_TYPE_KICK_PLAYER = "C2S_KICK_PLAYER";
     public static final String MESSAGE_TYPE_GET_MATCH_HISTORY = "C2S_GET_MATCH_HISTORY";
     public static final String MESSAGE_TYPE_GET_MATCH_STATS = "C2S_GET_MATCH_STATS";
-    public static final String MESSAGE_TYPE_PING = "PING";
-    public static final String MESSAGE_TYPE_PONG = "PONG";
+    public static final String MESSAGE_TYPE_QUICK_MATCH = "C2S_QUICK_MATCH"; // Vào hàng chờ ghép trận theo rating
+    public static final String MESSAGE_TYPE_CANCEL_QUICK_MATCH = "C2S_CANCEL_QUICK_MATCH";
+    public static final String MESSAGE_TYPE_CREATE_TOURNAMENT = "C2S_CREATE_TOURNAMENT"; // "name;user1,user2,..."
+    public static final String MESSAGE_TYPE_GAME_STATE_ACK = "C2S_GAME_STATE_ACK";
+    public static final String MESSAGE_TYPE_PING = "PING"; // Cả 2 chiều: "t0" (giờ bên gửi)
+    public static final String MESSAGE_TYPE_PONG = "PONG"; // "t0;t1;t2" (t1, t2 giờ bên trả lời), xem game.ClockSync
 
     // Server to Client (S2C) message types
     public static final String MESSAGE_TYPE_LOGIN_SUCCESS = "LOGIN_SUCCESS";
@@ -43,8 +53,9 @@ public class GameConstants {
     public static final String MESSAGE_TYPE_PLAYER_LEFT = "PLAYER_LEFT";
     public static final String MESSAGE_TYPE_JOIN_FAIL = "JOIN_FAIL";
     public static final String MESSAGE_TYPE_S2C_ROOM_LIST = "S2C_ROOM_LIST";
+    public static final String MESSAGE_TYPE_S2C_ROOM_PAGE = "S2C_ROOM_PAGE"; // {"rooms":[...],"nextCursor":...}
+    public static final String MESSAGE_TYPE_S2C_ROOM_LIST_DELTA = "S2C_ROOM_LIST_DELTA"; // "version|A/U/R/S|payload", xem server.RoomDirectory
     public static final String MESSAGE_TYPE_S2C_JOIN_REQUEST = "S2C_JOIN_REQUEST";
-    public static final String MESSAGE_TYPE_S2C_JOIN_APPROVED = "S2C_JOIN_APPROVED";
     public static final String MESSAGE_TYPE_S2C_JOIN_REJECTED = "S2C_JOIN_REJECTED";
     public static final String MESSAGE_TYPE_S2C_INVITE_TO_ROOM = "S2C_INVITE_TO_ROOM";
     public static final String MESSAGE_TYPE_S2C_SEARCH_RESULTS = "S2C_SEARCH_RESULTS";
@@ -61,8 +72,8 @@ public class GameConstants {
     public static final String MESSAGE_TYPE_S2C_ROOM_UPDATE = "S2C_ROOM_UPDATE";
     public static final String MESSAGE_TYPE_S2C_KICKED_FROM_ROOM = "S2C_KICKED_FROM_ROOM";
     public static final String MESSAGE_TYPE_LOGOUT_SUCCESS = "LOGOUT_SUCCESS";
-    public static final String MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED = "S2C_FRIEND_STATUS_CHANGED";
-    public static final String MESSAGE_TYPE_GAME_START = "GAME_START";
+    public static final String MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED = "S2C_FRIEND_STATUS_CHANGED"; // "username;online|offline|added|removed"
+    public static final String MESSAGE_TYPE_GAME_START = "GAME_START"; // "roomId;orderSeed;startAtMs;endAtMs" (giờ server)
     public static final String MESSAGE_TYPE_ERROR = "ERROR";
     public static final String MESSAGE_TYPE_ROOM_DELETED = "ROOM_DELETED";
     public static final String MESSAGE_TYPE_S2C_JOIN_REQUEST_SENT = "S2C_JOIN_REQUEST_SENT";
@@ -70,9 +81,18 @@ public class GameConstants {
 
     // Multiplayer game sync messages
     public static final String MESSAGE_TYPE_S2C_GAME_STATE = "S2C_GAME_STATE"; // Sync game state
+    public static final String MESSAGE_TYPE_S2C_GAME_STATE_DELTA = "S2C_GAME_STATE_DELTA"; // Chỉ gửi các field thay đổi
+    public static final String MESSAGE_TYPE_S2C_GAME_RESYNC = "S2C_GAME_RESYNC"; // "epoch;score;orderIndex;position": đặt lại GameCore của client theo server
     public static final String MESSAGE_TYPE_S2C_GAME_OVER = "S2C_GAME_OVER"; // Game kết thúc
 
     // Match history messages
     public static final String MESSAGE_TYPE_S2C_MATCH_HISTORY = "S2C_MATCH_HISTORY";
     public static final String MESSAGE_TYPE_S2C_MATCH_STATS = "S2C_MATCH_STATS";
+
+    // Quick match: "queued;queueSize", "cancelled", "error;reason"; khi ghép xong server gửi ROOM_JOINED rồi GAME_START
+    public static final String MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS = "S2C_QUICK_MATCH_STATUS";
+
+    // Giải đấu: người tổ chức nhận "created;tournamentId;entrants" hoặc "error;reason";
+    // người chơi nhận "status;tournamentId;round" (started, bye, walkover, advanced, eliminated, champion)
+    public static final String MESSAGE_TYPE_S2C_TOURNAMENT_STATUS = "S2C_TOURNAMENT_STATUS";
 }
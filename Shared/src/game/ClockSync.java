@@ -0,0 +1,98 @@
+package game;
+
+/**
+ * NTP-style estimate of the clock offset and round-trip time to the peer.
+ * One exchange gives four timestamps (in ms):
+ * t0 = ping sent (local), t1 = ping received (remote),
+ * t2 = pong sent (remote), t3 = pong received (local).
+ *
+ * rtt = (t3 - t0) - (t2 - t1), offset = ((t1 - t0) + (t2 - t3)) / 2 = remote - local.
+ * The offset of the sample with the lowest RTT in a small window is used,
+ * since that sample had the least queueing delay to skew it.
+ */
+public class ClockSync {
+    private static final int WINDOW = 8;
+
+    private final long[] rtts = new long[WINDOW];
+    private final long[] offsets = new long[WINDOW];
+    private int count;
+    private int next;
+
+    /**
+     * Add one ping/pong exchange
+     * @return false if the timestamps were inconsistent and the sample was dropped
+     */
+    public synchronized boolean addSample(long t0, long t1, long t2, long t3) {
+        long rtt = (t3 - t0) - (t2 - t1);
+        if (rtt < 0 || t2 < t1) return false;
+
+        rtts[next] = rtt;
+        offsets[next] = ((t1 - t0) + (t2 - t3)) / 2;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) count++;
+        return true;
+    }
+
+    /**
+     * Remote clock minus local clock, 0 until the first sample
+     */
+    public synchronized long getOffset() {
+        int best = bestSample();
+        return best < 0 ? 0 : offsets[best];
+    }
+
+    /**
+     * Average round-trip time over the window, 0 until the first sample
+     */
+    public synchronized long getRtt() {
+        if (count == 0) return 0;
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += rtts[i];
+        }
+        return sum / count;
+    }
+
+    /**
+     * Lowest round-trip time in the window, 0 until the first sample
+     */
+    public synchronized long getMinRtt() {
+        int best = bestSample();
+        return best < 0 ? 0 : rtts[best];
+    }
+
+    public synchronized boolean isSynced() {
+        return count > 0;
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Convert a local timestamp to the remote clock
+     */
+    public long toRemote(long localMillis) {
+        return localMillis + getOffset();
+    }
+
+    /**
+     * Convert a remote timestamp to the local clock
+     */
+    public long toLocal(long remoteMillis) {
+        return remoteMillis - getOffset();
+    }
+
+    private int bestSample() {
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            if (best < 0 || rtts[i] < rtts[best]) best = i;
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rtt %d ms, offset %d ms (%d samples)", getRtt(), getOffset(), getSampleCount());
+    }
+}
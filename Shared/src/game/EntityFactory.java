@@ -0,0 +1,53 @@
+package game;
+
+import models.Customer;
+import models.SpawnedItem;
+
+import java.util.SplittableRandom;
+
+/**
+ * Session-scoped source of entity ids and randomness.
+ * Ids are small monotonically increasing ints (unique within one session),
+ * and positions / item picks come from the session's own SplittableRandom,
+ * so sessions never contend on a shared SecureRandom or java.util.Random.
+ *
+ * Not thread-safe: each session owns one factory and uses it under its own lock.
+ */
+public class EntityFactory {
+    // Giữ item cách mép màn hình (0.15 .. 0.85)
+    private static final double POSITION_MIN = 0.15;
+    private static final double POSITION_RANGE = 0.7;
+
+    private final SplittableRandom random;
+    private int nextId = 1;
+
+    public EntityFactory(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Next entity id of this session
+     */
+    public int nextId() {
+        return nextId++;
+    }
+
+    public Customer newCustomer(String requestItemName, double timeMax, int slotIndex) {
+        return new Customer(nextId(), requestItemName, timeMax, slotIndex);
+    }
+
+    /**
+     * Spawn a random item at a random position
+     */
+    public SpawnedItem newItem(double timeRemaining) {
+        return new SpawnedItem(nextId(), randomItemName(), timeRemaining, randomPosition(), randomPosition());
+    }
+
+    public String randomItemName() {
+        return SpawnedItem.AVAILABLE_ITEMS[random.nextInt(SpawnedItem.AVAILABLE_ITEMS.length)];
+    }
+
+    public double randomPosition() {
+        return POSITION_MIN + random.nextDouble() * POSITION_RANGE;
+    }
+}
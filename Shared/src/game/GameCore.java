@@ -0,0 +1,185 @@
+package game;
+
+/**
+ * Headless rules of one player's game, shared by client and server.
+ * No UI, no clock and no allocation per input: time is always passed in as
+ * milliseconds since the game started, and orders come from an
+ * {@link OrderGenerator}, so the same inputs always give the same result.
+ *
+ * Rules:
+ * - keys 1..9 select an item; the current order must be typed in sequence
+ * - finishing an order scores its length, then the next order starts
+ * - a wrong key costs 1 point (never below 0) and keeps the current order
+ * - an order that runs out of time is skipped without penalty
+ * - time per order starts at 15s and drops 1s every 15s of play (minimum 2s)
+ *
+ * The client drives it with {@link #press} / {@link #advanceTime}; the server,
+ * which only sees (key, orderIndex) events, uses {@link #apply}.
+ */
+public class GameCore {
+    public static final int GAME_DURATION_SECONDS = 60;
+    public static final long GAME_DURATION_MILLIS = GAME_DURATION_SECONDS * 1000L;
+
+    // Độ khó: thời gian cho mỗi order
+    public static final double START_ALLOWED_SECONDS = 15.0;
+    public static final double MIN_ALLOWED_SECONDS = 2.0;
+    public static final int DIFFICULTY_STEP_SECONDS = 15;
+
+    // Kết quả của một input
+    public static final int RESULT_IGNORED = 0;
+    public static final int RESULT_CORRECT = 1;
+    public static final int RESULT_ORDER_COMPLETE = 2;
+    public static final int RESULT_WRONG = 3;
+
+    private OrderGenerator orders;
+    private final int[] orderItems = new int[OrderGenerator.MAX_SEQUENCE_LEN];
+    private int orderIndex;
+    private int orderLength;
+    private int position;
+    private long orderStartMillis;
+    private int score;
+
+    public GameCore(OrderGenerator orders) {
+        reset(orders);
+    }
+
+    /**
+     * Start a new game on the given order stream
+     */
+    public void reset(OrderGenerator orders) {
+        this.orders = orders;
+        this.score = 0;
+        startOrder(0, 0L);
+    }
+
+    /**
+     * Time allowed per order at a point in the game
+     */
+    public static double allowedSeconds(long elapsedMillis) {
+        long steps = elapsedMillis / 1000 / DIFFICULTY_STEP_SECONDS;
+        return Math.max(MIN_ALLOWED_SECONDS, START_ALLOWED_SECONDS - steps);
+    }
+
+    public static long allowedMillis(long elapsedMillis) {
+        return (long) (allowedSeconds(elapsedMillis) * 1000);
+    }
+
+    /**
+     * Skip the current order if its time has run out
+     * @return true if a new order was started
+     */
+    public boolean advanceTime(long nowMillis) {
+        if (nowMillis - orderStartMillis < allowedMillis(nowMillis)) {
+            return false;
+        }
+        startOrder(orderIndex + 1, nowMillis);
+        return true;
+    }
+
+    /**
+     * Player pressed a key at the given time (client side)
+     * @param keyNumber 1..9
+     * @return one of the RESULT_* constants
+     */
+    public int press(int keyNumber, long nowMillis) {
+        advanceTime(nowMillis);
+        return input(keyNumber, nowMillis);
+    }
+
+    /**
+     * Apply an input event tagged with the order the player was working on
+     * (server side: client timing decides when orders are skipped).
+     * Events for an older order are stale and ignored; events for a later
+     * order mean the orders in between timed out on the client.
+     * @return one of the RESULT_* constants
+     */
+    public int apply(int keyNumber, int eventOrderIndex) {
+        if (eventOrderIndex < orderIndex) {
+            return RESULT_IGNORED;
+        }
+        if (eventOrderIndex > orderIndex && isValidKey(keyNumber)) {
+            startOrder(eventOrderIndex, orderStartMillis);
+        }
+        return input(keyNumber, orderStartMillis);
+    }
+
+    private int input(int keyNumber, long nowMillis) {
+        if (!isValidKey(keyNumber)) {
+            return RESULT_IGNORED;
+        }
+        if (keyNumber - 1 != orderItems[position]) {
+            score = Math.max(0, score - 1);
+            return RESULT_WRONG;
+        }
+
+        position++;
+        if (position < orderLength) {
+            return RESULT_CORRECT;
+        }
+        score += orderLength;
+        startOrder(orderIndex + 1, nowMillis);
+        return RESULT_ORDER_COMPLETE;
+    }
+
+    /**
+     * Đặt lại trạng thái theo bản của server (sau khi server loại input trễ)
+     */
+    public void resync(int index, int position, int score, long nowMillis) {
+        startOrder(Math.max(0, index), nowMillis);
+        this.position = Math.max(0, Math.min(position, orderLength - 1));
+        this.score = Math.max(0, score);
+    }
+
+    private void startOrder(int index, long nowMillis) {
+        orderIndex = index;
+        orderLength = orders.fillOrder(index, orderItems);
+        position = 0;
+        orderStartMillis = nowMillis;
+    }
+
+    private static boolean isValidKey(int keyNumber) {
+        return keyNumber >= 1 && keyNumber <= OrderGenerator.ITEM_COUNT;
+    }
+
+    // Getters
+    public int getScore() {
+        return score;
+    }
+
+    public int getOrderIndex() {
+        return orderIndex;
+    }
+
+    public int getOrderLength() {
+        return orderLength;
+    }
+
+    /**
+     * Number of items of the current order already typed
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Item index (0..8) at a position of the current order
+     */
+    public int getOrderItem(int position) {
+        return orderItems[position];
+    }
+
+    public long getOrderStartMillis() {
+        return orderStartMillis;
+    }
+
+    /**
+     * Milliseconds left on the current order
+     */
+    public long getOrderRemainingMillis(long nowMillis) {
+        return Math.max(0, allowedMillis(nowMillis) - (nowMillis - orderStartMillis));
+    }
+
+    public OrderGenerator getOrders() {
+        return orders;
+    }
+}
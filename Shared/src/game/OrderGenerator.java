@@ -0,0 +1,91 @@
+package game;
+
+import models.SpawnedItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic, seedable order generator shared by client and server.
+ * Every order is derived from (seed, orderIndex) alone, so both players and
+ * the server see the identical order stream, and any order can be
+ * re-derived directly without replaying the ones before it.
+ *
+ * Items are indices into {@link SpawnedItem#AVAILABLE_ITEMS}, which matches
+ * the 3x3 key grid (keys 1..9 -> index 0..8).
+ */
+public class OrderGenerator {
+    public static final int MIN_SEQUENCE_LEN = 2;
+    public static final int MAX_SEQUENCE_LEN = 6;
+    public static final int ITEM_COUNT = 9;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    public OrderGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Number of items in the given order
+     */
+    public int orderLength(int orderIndex) {
+        long state = orderState(orderIndex);
+        return MIN_SEQUENCE_LEN + bounded(mix64(state), MAX_SEQUENCE_LEN - MIN_SEQUENCE_LEN + 1);
+    }
+
+    /**
+     * Item index (0..8) at a position of the given order
+     */
+    public int itemAt(int orderIndex, int position) {
+        long state = orderState(orderIndex);
+        return bounded(mix64(state + GOLDEN_GAMMA * (position + 1)), ITEM_COUNT);
+    }
+
+    /**
+     * Write the item indices of an order into a caller-supplied buffer
+     * @param out buffer of at least MAX_SEQUENCE_LEN entries
+     * @return the order length
+     */
+    public int fillOrder(int orderIndex, int[] out) {
+        int length = orderLength(orderIndex);
+        for (int i = 0; i < length; i++) {
+            out[i] = itemAt(orderIndex, i);
+        }
+        return length;
+    }
+
+    /**
+     * Item names of an order, for display
+     */
+    public List<String> orderItems(int orderIndex) {
+        int length = orderLength(orderIndex);
+        List<String> items = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            items.add(SpawnedItem.AVAILABLE_ITEMS[itemAt(orderIndex, i)]);
+        }
+        return items;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    private long orderState(int orderIndex) {
+        return mix64(seed + GOLDEN_GAMMA * (orderIndex + 1L));
+    }
+
+    /**
+     * SplitMix64 finalizer
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int bounded(long value, int bound) {
+        return (int) ((value >>> 1) % bound);
+    }
+}
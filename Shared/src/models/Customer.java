@@ -1,21 +1,22 @@
 package models;
 
-import java.util.UUID;
-
 /**
  * Customer model - represents a customer waiting for items
  * Server-side authoritative model
  */
 public class Customer {
-    private final String customerID;
+    private final int customerID;
     private String requestItemName;
     private double timeRemaining;
     private double timeMax;
     private String mood; // "neutral", "happy", "angry"
     private int slotIndex; // Position slot (0, 1, or 2)
 
-    public Customer(String requestItemName, double timeMax, int slotIndex) {
-        this.customerID = UUID.randomUUID().toString();
+    /**
+     * @param customerID session-scoped id, see {@link game.EntityFactory}
+     */
+    public Customer(int customerID, String requestItemName, double timeMax, int slotIndex) {
+        this.customerID = customerID;
         this.requestItemName = requestItemName;
         this.timeMax = timeMax;
         this.timeRemaining = timeMax;
@@ -51,14 +52,28 @@ public class Customer {
      * Convert to JSON string for network transmission
      */
     public String toJson() {
-        return String.format(
-                "{\"id\":\"%s\",\"item\":\"%s\",\"timeRemaining\":%.2f,\"timeMax\":%.2f,\"mood\":\"%s\",\"slot\":%d}",
-                customerID, requestItemName, timeRemaining, timeMax, mood, slotIndex
-        );
+        return writeJson(new StringBuilder(96)).toString();
+    }
+
+    /**
+     * Append this customer as JSON to a (reusable) buffer
+     */
+    public StringBuilder writeJson(StringBuilder out) {
+        out.append("{\"id\":").append(customerID);
+        out.append(",\"item\":");
+        JsonWriter.appendString(out, requestItemName);
+        out.append(",\"timeRemaining\":");
+        JsonWriter.appendFixed(out, timeRemaining, 2);
+        out.append(",\"timeMax\":");
+        JsonWriter.appendFixed(out, timeMax, 2);
+        out.append(",\"mood\":");
+        JsonWriter.appendString(out, mood);
+        out.append(",\"slot\":").append(slotIndex);
+        return out.append('}');
     }
 
     // Getters and Setters
-    public String getCustomerID() {
+    public int getCustomerID() {
         return customerID;
     }
 
@@ -100,7 +115,7 @@ public class Customer {
 
     @Override
     public String toString() {
-        return String.format("Customer[%s wants %s, %.1fs left, slot %d, %s]",
-                customerID.substring(0, 8), requestItemName, timeRemaining, slotIndex, mood);
+        return String.format("Customer[#%d wants %s, %.1fs left, slot %d, %s]",
+                customerID, requestItemName, timeRemaining, slotIndex, mood);
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package models;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -31,48 +32,82 @@ public class GameState {
      * Format optimized for network transmission
      */
     public String toJson() {
-        StringBuilder json = new StringBuilder();
-        json.append("{");
+        return writeJson(new StringBuilder(256)).toString();
+    }
+
+    /**
+     * Append the game state as JSON to a caller-supplied buffer.
+     * toJson() calls it with one presized builder; customers and items append
+     * into the same buffer instead of building a string each.
+     */
+    public StringBuilder writeJson(StringBuilder out) {
+        out.append('{');
 
         // Time remaining
-        json.append("\"timeRemaining\":").append(gameTimeRemaining).append(",");
+        out.append("\"timeRemaining\":").append(gameTimeRemaining).append(',');
 
         // Customers array
-        json.append("\"customers\":[");
+        out.append("\"customers\":[");
         for (int i = 0; i < customers.size(); i++) {
-            json.append(customers.get(i).toJson());
-            if (i < customers.size() - 1) json.append(",");
+            if (i > 0) out.append(',');
+            customers.get(i).writeJson(out);
         }
-        json.append("],");
+        out.append("],");
 
         // Items array
-        json.append("\"items\":[");
+        out.append("\"items\":[");
         for (int i = 0; i < items.size(); i++) {
-            json.append(items.get(i).toJson());
-            if (i < items.size() - 1) json.append(",");
+            if (i > 0) out.append(',');
+            items.get(i).writeJson(out);
         }
-        json.append("],");
+        out.append("],");
 
         // Scores object
-        json.append("\"scores\":{");
-        int scoreCount = 0;
-        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
-            json.append("\"").append(entry.getKey()).append("\":").append(entry.getValue());
-            if (++scoreCount < scores.size()) json.append(",");
-        }
-        json.append("},");
+        out.append("\"scores\":");
+        writeIntMap(out, scores);
+        out.append(',');
 
         // Combos object
-        json.append("\"combos\":{");
-        int comboCount = 0;
-        for (Map.Entry<String, Integer> entry : combos.entrySet()) {
-            json.append("\"").append(entry.getKey()).append("\":").append(entry.getValue());
-            if (++comboCount < combos.size()) json.append(",");
+        out.append("\"combos\":");
+        writeIntMap(out, combos);
+
+        return out.append('}');
+    }
+
+    private static void writeIntMap(StringBuilder out, Map<String, Integer> map) {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            JsonWriter.appendKey(out, entry.getKey(), first).append(entry.getValue().intValue());
+            first = false;
         }
-        json.append("}");
+        out.append('}');
+    }
 
-        json.append("}");
-        return json.toString();
+    /**
+     * Flatten the game state into snapshot fields for delta encoding
+     * (see {@link GameStateDelta}). Each customer and item is one field,
+     * so only the entities that changed are re-sent.
+     */
+    public Map<String, String> toSnapshotFields() {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put(GameStateDelta.FIELD_TIME_LEFT, String.valueOf(gameTimeRemaining));
+        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+            fields.put(GameStateDelta.PREFIX_SCORE + entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        for (Map.Entry<String, Integer> entry : combos.entrySet()) {
+            fields.put(GameStateDelta.PREFIX_COMBO + entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        StringBuilder buffer = new StringBuilder(96);
+        for (Customer customer : customers) {
+            buffer.setLength(0);
+            fields.put(GameStateDelta.PREFIX_CUSTOMER + customer.getCustomerID(), customer.writeJson(buffer).toString());
+        }
+        for (SpawnedItem item : items) {
+            buffer.setLength(0);
+            fields.put(GameStateDelta.PREFIX_ITEM + item.getItemID(), item.writeJson(buffer).toString());
+        }
+        return fields;
     }
 
     // Getters
@@ -0,0 +1,88 @@
+package models;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codec for delta-encoded game state snapshots.
+ * A snapshot is a flat map of field -> value (see {@link GameState#toSnapshotFields()}).
+ * Only fields that differ from the baseline snapshot are sent.
+ *
+ * Wire format: "seq|baseSeq|key=value|-removedKey|..."
+ * baseSeq = 0 marks a keyframe that carries every field.
+ */
+public class GameStateDelta {
+    public static final String FIELD_TIME_LEFT = "t";
+    public static final String PREFIX_SCORE = "p.";
+    public static final String PREFIX_COMBO = "k.";
+    public static final String PREFIX_CUSTOMER = "c.";
+    public static final String PREFIX_ITEM = "i.";
+
+    /** Base sequence number of a keyframe */
+    public static final int KEYFRAME = 0;
+
+    /**
+     * Encode the difference between two snapshots
+     * @param base baseline the receiver already has, or null for a keyframe
+     */
+    public static String encode(int seq, int baseSeq, Map<String, String> base, Map<String, String> current) {
+        StringBuilder data = new StringBuilder(64);
+        data.append(seq).append('|').append(base == null ? KEYFRAME : baseSeq);
+
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            String old = base != null ? base.get(entry.getKey()) : null;
+            if (!entry.getValue().equals(old)) {
+                data.append('|').append(entry.getKey()).append('=').append(entry.getValue());
+            }
+        }
+        if (base != null) {
+            for (String key : base.keySet()) {
+                if (!current.containsKey(key)) {
+                    data.append("|-").append(key);
+                }
+            }
+        }
+        return data.toString();
+    }
+
+    /**
+     * Sequence number of an encoded delta
+     */
+    public static int seqOf(String data) {
+        return Integer.parseInt(data.substring(0, data.indexOf('|')));
+    }
+
+    /**
+     * Sequence number of the baseline an encoded delta was built against
+     */
+    public static int baseSeqOf(String data) {
+        int start = data.indexOf('|') + 1;
+        int end = data.indexOf('|', start);
+        return Integer.parseInt(end < 0 ? data.substring(start) : data.substring(start, end));
+    }
+
+    /**
+     * Apply an encoded delta to its baseline
+     * @param base baseline snapshot, ignored for keyframes
+     * @return the new snapshot (base is left untouched)
+     */
+    public static Map<String, String> apply(Map<String, String> base, String data) {
+        String[] parts = data.split("\\|");
+        boolean keyframe = Integer.parseInt(parts[1]) == KEYFRAME;
+        Map<String, String> result = keyframe || base == null ? new HashMap<>() : new HashMap<>(base);
+
+        for (int i = 2; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.isEmpty()) continue;
+            if (part.charAt(0) == '-') {
+                result.remove(part.substring(1));
+            } else {
+                int eq = part.indexOf('=');
+                if (eq > 0) {
+                    result.put(part.substring(0, eq), part.substring(eq + 1));
+                }
+            }
+        }
+        return result;
+    }
+}
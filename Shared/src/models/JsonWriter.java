@@ -0,0 +1,98 @@
+package models;
+
+/**
+ * Append-only JSON helpers used by the models' writeJson methods.
+ * Everything is written straight into a caller-supplied StringBuilder,
+ * so a builder reused across ticks serialises the game state without
+ * allocating. Numbers are always written with '.' as decimal separator,
+ * independent of the default locale.
+ */
+public final class JsonWriter {
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L
+    };
+
+    // Doubles above this lose precision when scaled into a long
+    private static final double MAX_FIXED = 1e12;
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Append a double with a fixed number of decimals (rounded half-up),
+     * equivalent to String.format("%.Nf") in Locale.ROOT
+     * @param decimals 0..6
+     */
+    public static StringBuilder appendFixed(StringBuilder out, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // JSON không có NaN/Infinity
+            value = 0;
+        }
+
+        double abs = Math.abs(value);
+        if (abs >= MAX_FIXED) {
+            return out.append(value);
+        }
+
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(abs * scale);
+        if (value < 0 && scaled != 0) {
+            out.append('-');
+        }
+        out.append(scaled / scale);
+
+        if (decimals > 0) {
+            out.append('.');
+            long fraction = scaled % scale;
+            for (long digit = scale / 10; digit > 1 && fraction < digit; digit /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+        return out;
+    }
+
+    /**
+     * Append a quoted, escaped JSON string
+     */
+    public static StringBuilder appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u00");
+                        out.append(Character.forDigit(c >> 4, 16));
+                        out.append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    /**
+     * Append "key": with a leading comma unless it is the first field
+     */
+    public static StringBuilder appendKey(StringBuilder out, String key, boolean first) {
+        if (!first) out.append(',');
+        return appendString(out, key).append(':');
+    }
+}
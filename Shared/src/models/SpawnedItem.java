@@ -1,50 +1,33 @@
 package models;
 
-import java.util.Random;
-import java.util.UUID;
-
 /**
  * SpawnedItem model - represents an item spawned in the game
  * Server-side authoritative model
  */
 public class SpawnedItem {
-    private final String itemID;
+    private final int itemID;
     private String itemName;
     private double timeRemaining;
     private double x; // Position X (0.0 to 1.0 normalized)
     private double y; // Position Y (0.0 to 1.0 normalized)
 
-    private static final Random random = new Random();
-
     // Available items in the game
     public static final String[] AVAILABLE_ITEMS = {
             "MILK", "BREAD", "APPLE", "CARROT",
             "ORANGE", "EGGS", "CHEESE", "MEAT", "SODA"
     };
 
-    public SpawnedItem(String itemName, double timeRemaining) {
-        this.itemID = UUID.randomUUID().toString();
-        this.itemName = itemName;
-        this.timeRemaining = timeRemaining;
-        this.x = randomPosition();
-        this.y = randomPosition();
-    }
-
-    public SpawnedItem(String itemName, double timeRemaining, double x, double y) {
-        this.itemID = UUID.randomUUID().toString();
+    /**
+     * @param itemID session-scoped id, see {@link game.EntityFactory}
+     */
+    public SpawnedItem(int itemID, String itemName, double timeRemaining, double x, double y) {
+        this.itemID = itemID;
         this.itemName = itemName;
         this.timeRemaining = timeRemaining;
         this.x = x;
         this.y = y;
     }
 
-    /**
-     * Generate random position (0.15 to 0.85 to avoid edges)
-     */
-    private static double randomPosition() {
-        return 0.15 + (random.nextDouble() * 0.7);
-    }
-
     /**
      * Update item's remaining time
      * @param deltaTime time in seconds to subtract
@@ -56,24 +39,30 @@ public class SpawnedItem {
     }
 
     /**
-     * Get random item name from available items
+     * Convert to JSON string for network transmission
      */
-    public static String getRandomItemName() {
-        return AVAILABLE_ITEMS[random.nextInt(AVAILABLE_ITEMS.length)];
+    public String toJson() {
+        return writeJson(new StringBuilder(96)).toString();
     }
 
     /**
-     * Convert to JSON string for network transmission
+     * Append this item as JSON to a (reusable) buffer
      */
-    public String toJson() {
-        return String.format(
-                "{\"id\":\"%s\",\"name\":\"%s\",\"timeRemaining\":%.2f,\"x\":%.3f,\"y\":%.3f}",
-                itemID, itemName, timeRemaining, x, y
-        );
+    public StringBuilder writeJson(StringBuilder out) {
+        out.append("{\"id\":").append(itemID);
+        out.append(",\"name\":");
+        JsonWriter.appendString(out, itemName);
+        out.append(",\"timeRemaining\":");
+        JsonWriter.appendFixed(out, timeRemaining, 2);
+        out.append(",\"x\":");
+        JsonWriter.appendFixed(out, x, 3);
+        out.append(",\"y\":");
+        JsonWriter.appendFixed(out, y, 3);
+        return out.append('}');
     }
 
     // Getters and Setters
-    public String getItemID() {
+    public int getItemID() {
         return itemID;
     }
 
@@ -111,7 +100,7 @@ public class SpawnedItem {
 
     @Override
     public String toString() {
-        return String.format("Item[%s: %s at (%.2f, %.2f), %.1fs left]",
-                itemID.substring(0, 8), itemName, x, y, timeRemaining);
+        return String.format("Item[#%d: %s at (%.2f, %.2f), %.1fs left]",
+                itemID, itemName, x, y, timeRemaining);
     }
 }
\ No newline at end of file
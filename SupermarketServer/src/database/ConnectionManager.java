@@ -0,0 +1,288 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SQLite connections for DatabaseManager: one writer connection and a small
+ * pool of read-only connections on the same database file.
+ *
+ * The database runs in WAL mode, so readers see the last committed state
+ * and never wait for a write in progress (leaderboard and match history no
+ * longer queue behind score saves); SQLite allows a single writer anyway,
+ * so writes are serialised here instead of failing with SQLITE_BUSY.
+ * synchronous=NORMAL is durable across application crashes in WAL mode and
+ * skips the fsync on every commit; an OS crash or power loss can still lose
+ * the commits made since the last checkpoint.
+ *
+ * A connection is borrowed for one method call with try-with-resources:
+ *   try (ConnectionManager.Lease lease = connections.read()) {
+ *       PreparedStatement pstmt = lease.prepare(query); ...
+ *   }
+ * The time spent waiting for a free connection is recorded per pool.
+ *
+ * Each connection keeps its prepared statements, keyed by SQL, so a query
+ * is parsed and planned once per connection instead of on every call. A
+ * connection has one lease holder at a time, which makes reusing its
+ * statements safe; statements from prepare() belong to the cache and must
+ * not be closed by the caller (their ResultSets still must be).
+ */
+public class ConnectionManager {
+    static final int READER_COUNT = 4;
+    static final int BUSY_TIMEOUT_MILLIS = 5000;
+    static final int STATEMENT_CACHE_SIZE = 64; // mỗi connection, LRU
+    private static final long BORROW_TIMEOUT_MILLIS = 10_000;
+
+    private final Pool writer;
+    private final Pool readers;
+
+    private ConnectionManager(Pool writer, Pool readers) {
+        this.writer = writer;
+        this.readers = readers;
+    }
+
+    /**
+     * Open the writer (switching the database to WAL) and the readers
+     */
+    public static ConnectionManager open(String url) throws SQLException {
+        List<Connection> opened = new ArrayList<>();
+        try {
+            Connection writerConnection = DriverManager.getConnection(url);
+            opened.add(writerConnection);
+            try (Statement stmt = writerConnection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL");
+                stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MILLIS);
+            }
+
+            List<Connection> readerConnections = new ArrayList<>();
+            for (int i = 0; i < READER_COUNT; i++) {
+                Connection reader = DriverManager.getConnection(url);
+                opened.add(reader);
+                try (Statement stmt = reader.createStatement()) {
+                    stmt.execute("PRAGMA query_only=ON");
+                    stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MILLIS);
+                }
+                readerConnections.add(reader);
+            }
+
+            List<Connection> writerList = new ArrayList<>();
+            writerList.add(writerConnection);
+            return new ConnectionManager(new Pool("writer", writerList), new Pool("reader", readerConnections));
+        } catch (SQLException e) {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                    // Đang báo lỗi gốc
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Borrow a read-only connection
+     */
+    public Lease read() throws SQLException {
+        return readers.borrow();
+    }
+
+    /**
+     * Borrow the writer connection (one holder at a time)
+     */
+    public Lease write() throws SQLException {
+        return writer.borrow();
+    }
+
+    /**
+     * Per pool: wait time for a connection (count, average and max, microseconds)
+     * and statement cache hits, misses and hit rate
+     */
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = new HashMap<>();
+        writer.putMetrics(metrics);
+        readers.putMetrics(metrics);
+        return metrics;
+    }
+
+    public void close() throws SQLException {
+        writer.close();
+        readers.close();
+    }
+
+    /**
+     * A borrowed connection; closing the lease returns it to its pool
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Pool pool;
+        private final Connection connection;
+        private final StatementCache statements;
+
+        private Lease(Pool pool, Connection connection, StatementCache statements) {
+            this.pool = pool;
+            this.connection = connection;
+            this.statements = statements;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        /**
+         * The cached statement for this SQL on this connection (prepared on first use),
+         * with its parameters and batch cleared. Do not close it.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return prepare(sql, Statement.NO_GENERATED_KEYS);
+        }
+
+        /**
+         * Same as prepare(sql), for Statement.RETURN_GENERATED_KEYS
+         */
+        public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K\0" + sql : sql;
+            PreparedStatement pstmt = statements.get(key);
+            if (pstmt != null && !pstmt.isClosed()) {
+                pool.statementHits.increment();
+                pstmt.clearParameters();
+                pstmt.clearBatch(); // một batch lỗi trước đó không được chạy lại
+                return pstmt;
+            }
+            pool.statementMisses.increment();
+            pstmt = connection.prepareStatement(sql, autoGeneratedKeys);
+            statements.put(key, pstmt);
+            return pstmt;
+        }
+
+        @Override
+        public void close() {
+            pool.release(connection);
+        }
+    }
+
+    private static final class Pool {
+        private final String name;
+        private final List<Connection> all;
+        private final BlockingQueue<Connection> idle;
+        private final Map<Connection, StatementCache> statements = new IdentityHashMap<>(); // chỉ đọc sau constructor
+
+        private final LongAdder borrows = new LongAdder();
+        private final LongAdder waited = new LongAdder(); // số lần phải chờ
+        private final LongAdder waitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final LongAdder statementHits = new LongAdder();
+        private final LongAdder statementMisses = new LongAdder();
+
+        Pool(String name, List<Connection> connections) {
+            this.name = name;
+            this.all = connections;
+            this.idle = new ArrayBlockingQueue<>(connections.size(), true, connections);
+            for (Connection connection : connections) {
+                statements.put(connection, new StatementCache());
+            }
+        }
+
+        Lease borrow() throws SQLException {
+            Connection connection = idle.poll();
+            if (connection == null) {
+                long start = System.nanoTime();
+                try {
+                    connection = idle.poll(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a " + name + " connection");
+                }
+                long wait = System.nanoTime() - start;
+                waited.increment();
+                waitNanos.add(wait);
+                maxWaitNanos.accumulateAndGet(wait, Math::max);
+                if (connection == null) {
+                    throw new SQLException("Timed out waiting for a " + name + " connection");
+                }
+            }
+            borrows.increment();
+            return new Lease(this, connection, statements.get(connection));
+        }
+
+        void release(Connection connection) {
+            idle.offer(connection);
+        }
+
+        void putMetrics(Map<String, String> metrics) {
+            long count = borrows.sum();
+            metrics.put(name + "_borrows", String.valueOf(count));
+            metrics.put(name + "_waits", String.valueOf(waited.sum()));
+            metrics.put(name + "_wait_avg_us", String.valueOf(count == 0 ? 0 : waitNanos.sum() / count / 1000));
+            metrics.put(name + "_wait_max_us", String.valueOf(maxWaitNanos.get() / 1000));
+
+            long hits = statementHits.sum();
+            long lookups = hits + statementMisses.sum();
+            metrics.put(name + "_statement_hits", String.valueOf(hits));
+            metrics.put(name + "_statement_misses", String.valueOf(lookups - hits));
+            metrics.put(name + "_statement_hit_rate",
+                    lookups == 0 ? "0" : String.format("%.3f", (double) hits / lookups));
+        }
+
+        void close() throws SQLException {
+            for (Connection connection : all) {
+                statements.get(connection).closeAll();
+                if (!connection.isClosed()) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepared statements of one connection, least recently used evicted first.
+     * Only touched by the connection's current lease holder.
+     */
+    private static final class StatementCache {
+        private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        PreparedStatement get(String key) {
+            return statements.get(key);
+        }
+
+        void put(String key, PreparedStatement pstmt) {
+            statements.put(key, pstmt);
+            if (statements.size() > STATEMENT_CACHE_SIZE) {
+                // Thứ tự truy cập: phần tử đầu là statement lâu nhất chưa dùng
+                Iterator<PreparedStatement> eldest = statements.values().iterator();
+                closeQuietly(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        void closeAll() {
+            for (PreparedStatement pstmt : statements.values()) {
+                closeQuietly(pstmt);
+            }
+            statements.clear();
+        }
+
+        private static void closeQuietly(PreparedStatement pstmt) {
+            try {
+                pstmt.close();
+            } catch (SQLException ignored) {
+                // Statement bị bỏ đi
+            }
+        }
+    }
+}
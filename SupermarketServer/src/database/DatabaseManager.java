@@ -5,11 +5,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import utils.PasswordHasher;
 
 public class DatabaseManager {
     private static final String DB_URL = "jdbc:sqlite:supermarket_game.db";
-    private Connection connection;
+    private ConnectionManager connections;
+    private WriteBehindQueue writeBehind;
     
     /**
      * Initialize database and create tables
@@ -19,12 +21,14 @@ public class DatabaseManager {
             // Load SQLite JDBC driver
             Class.forName("org.sqlite.JDBC");
             
-            // Connect to database (creates file if not exists)
-            connection = DriverManager.getConnection(DB_URL);
+            // Connect to database (creates file if not exists): 1 writer + read-only pool, WAL
+            connections = ConnectionManager.open(DB_URL);
             
             System.out.println("📁 Database: supermarket_game.db");
             
             createTables();
+            writeBehind = new WriteBehindQueue(connections);
+            writeBehind.start();
             return true;
             
         } catch (ClassNotFoundException e) {
@@ -96,6 +100,38 @@ public class DatabaseManager {
                         "FOREIGN KEY (player2) REFERENCES users(username)" +
                         ")";
 
+        String createMatchReplaysTable =
+                "CREATE TABLE IF NOT EXISTS match_replays (" +
+                        "match_id INTEGER PRIMARY KEY," +
+                        "replay_file TEXT NOT NULL," +
+                        "FOREIGN KEY (match_id) REFERENCES match_history(id)" +
+                        ")";
+
+        String createTournamentsTable =
+                "CREATE TABLE IF NOT EXISTS tournaments (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "name TEXT NOT NULL," +
+                        "organizer TEXT NOT NULL," +
+                        "status TEXT DEFAULT 'running'," +
+                        "winner TEXT," +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                        "finished_at TIMESTAMP" +
+                        ")";
+
+        // Một dòng cho mỗi trận của bracket; player2 NULL = bye
+        String createTournamentMatchesTable =
+                "CREATE TABLE IF NOT EXISTS tournament_matches (" +
+                        "tournament_id INTEGER NOT NULL," +
+                        "round INTEGER NOT NULL," +
+                        "slot INTEGER NOT NULL," +
+                        "player1 TEXT NOT NULL," +
+                        "player2 TEXT," +
+                        "winner TEXT," +
+                        "room_id TEXT," +
+                        "PRIMARY KEY (tournament_id, round, slot)," +
+                        "FOREIGN KEY (tournament_id) REFERENCES tournaments(id)" +
+                        ")";
+
         String createIndexScore =
             "CREATE INDEX IF NOT EXISTS idx_scores_username ON scores(username)";
 
@@ -114,12 +150,16 @@ public class DatabaseManager {
         String createIndexMatchPlayer2 =
                 "CREATE INDEX IF NOT EXISTS idx_match_player2 ON match_history(player2)";
 
-        try (Statement stmt = connection.createStatement()) {
+        try (ConnectionManager.Lease lease = connections.write();
+             Statement stmt = lease.connection().createStatement()) {
             stmt.execute(createUsersTable);
             stmt.execute(createScoresTable);
             stmt.execute(createFriendRequestsTable);
             stmt.execute(createFriendsTable);
             stmt.execute(createMatchHistoryTable);
+            stmt.execute(createMatchReplaysTable);
+            stmt.execute(createTournamentsTable);
+            stmt.execute(createTournamentMatchesTable);
             stmt.execute(createIndexScore);
             stmt.execute(createIndexHighScore);
             stmt.execute(createIndexFriends1);
@@ -135,22 +175,23 @@ public class DatabaseManager {
      */
     public boolean validateUser(String username, String password) {
         String query = "SELECT password FROM users WHERE username = ?";
+        String storedPassword = null;
         
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    String storedPassword = rs.getString("password");
-                    // Use bcrypt to verify password
-                    return PasswordHasher.verifyPassword(password, storedPassword);
+                    storedPassword = rs.getString("password");
                 }
             }
         } catch (SQLException e) {
             System.err.println("Login error: " + e.getMessage());
         }
         
-        return false;
+        // Use bcrypt to verify password (after returning the reader, bcrypt is slow)
+        return storedPassword != null && PasswordHasher.verifyPassword(password, storedPassword);
     }
     
     /**
@@ -158,11 +199,12 @@ public class DatabaseManager {
      */
     public boolean registerUser(String username, String password) {
         String query = "INSERT INTO users (username, password) VALUES (?, ?)";
+        // Hash password using bcrypt before storing (before taking the writer, bcrypt is slow)
+        String hashedPassword = PasswordHasher.hashPassword(password);
         
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
-            // Hash password using bcrypt before storing
-            String hashedPassword = PasswordHasher.hashPassword(password);
             pstmt.setString(2, hashedPassword);
             pstmt.executeUpdate();
             return true;
@@ -177,21 +219,20 @@ public class DatabaseManager {
     }
     
     /**
-     * Save game score
+     * Save game score (group-committed with other game results)
+     * @return completes once the row is committed; with synchronous=NORMAL a
+     *         committed row survives an application crash, not an OS crash or power loss
      */
-    public boolean saveScore(String username, int score) {
+    public CompletableFuture<Void> saveScore(String username, int score) {
         String query = "INSERT INTO scores (username, score) VALUES (?, ?)";
-        
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+
+        return writeBehind.submit(lease -> {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
             pstmt.setInt(2, score);
             pstmt.executeUpdate();
-            return true;
-            
-        } catch (SQLException e) {
-            System.err.println("Save score error: " + e.getMessage());
-            return false;
-        }
+            return null;
+        });
     }
     
     /**
@@ -207,7 +248,8 @@ public class DatabaseManager {
         
         StringBuilder sb = new StringBuilder();
         
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setInt(1, limit);
             
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -244,7 +286,8 @@ public class DatabaseManager {
             "FROM scores " +
             "WHERE username = ?";
         
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
             
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -275,7 +318,8 @@ public class DatabaseManager {
             "ORDER BY played_at DESC " +
             "LIMIT ?";
         
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
             pstmt.setInt(2, limit);
             
@@ -303,7 +347,8 @@ public class DatabaseManager {
         List<String> users = new ArrayList<>();
         String query = "SELECT username FROM users WHERE username LIKE ? AND username != ? LIMIT 20";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, "%" + searchTerm + "%");
             pstmt.setString(2, excludeUser);
 
@@ -333,7 +378,8 @@ public class DatabaseManager {
                            "(from_username = ? AND to_username = ?) OR " +
                            "(from_username = ? AND to_username = ?)";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(checkQuery)) {
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(checkQuery);
             pstmt.setString(1, fromUser);
             pstmt.setString(2, toUser);
             pstmt.setString(3, toUser);
@@ -352,7 +398,8 @@ public class DatabaseManager {
         // Insert new request
         String query = "INSERT INTO friend_requests (from_username, to_username, status) VALUES (?, ?, 'pending')";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, fromUser);
             pstmt.setString(2, toUser);
             pstmt.executeUpdate();
@@ -367,47 +414,46 @@ public class DatabaseManager {
      * Accept friend request
      */
     public boolean acceptFriendRequest(String fromUser, String toUser) {
-        try {
-            connection.setAutoCommit(false);
+        // Update request status
+        String updateQuery = "UPDATE friend_requests SET status = 'accepted' " +
+                            "WHERE from_username = ? AND to_username = ? AND status = 'pending'";
+
+        // Add to friends table (ensure user1 < user2 for consistency)
+        String user1 = fromUser.compareTo(toUser) < 0 ? fromUser : toUser;
+        String user2 = fromUser.compareTo(toUser) < 0 ? toUser : fromUser;
 
-            // Update request status
-            String updateQuery = "UPDATE friend_requests SET status = 'accepted' " +
-                                "WHERE from_username = ? AND to_username = ? AND status = 'pending'";
+        String insertQuery = "INSERT INTO friends (user1, user2) VALUES (?, ?)";
 
-            try (PreparedStatement pstmt = connection.prepareStatement(updateQuery)) {
-                pstmt.setString(1, fromUser);
-                pstmt.setString(2, toUser);
-                int updated = pstmt.executeUpdate();
+        try (ConnectionManager.Lease lease = connections.write()) {
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement update = lease.prepare(updateQuery);
+                update.setString(1, fromUser);
+                update.setString(2, toUser);
+                int updated = update.executeUpdate();
 
                 if (updated == 0) {
                     connection.rollback();
                     return false;
                 }
-            }
 
-            // Add to friends table (ensure user1 < user2 for consistency)
-            String user1 = fromUser.compareTo(toUser) < 0 ? fromUser : toUser;
-            String user2 = fromUser.compareTo(toUser) < 0 ? toUser : fromUser;
+                PreparedStatement insert = lease.prepare(insertQuery);
+                insert.setString(1, user1);
+                insert.setString(2, user2);
+                insert.executeUpdate();
 
-            String insertQuery = "INSERT INTO friends (user1, user2) VALUES (?, ?)";
-
-            try (PreparedStatement pstmt = connection.prepareStatement(insertQuery)) {
-                pstmt.setString(1, user1);
-                pstmt.setString(2, user2);
-                pstmt.executeUpdate();
-            }
+                connection.commit();
+                return true;
 
-            connection.commit();
-            connection.setAutoCommit(true);
-            return true;
-
-        } catch (SQLException e) {
-            try {
+            } catch (SQLException e) {
                 connection.rollback();
+                throw e;
+            } finally {
+                // Writer được dùng lại cho các lệnh khác: luôn trả về auto-commit
                 connection.setAutoCommit(true);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
             }
+        } catch (SQLException e) {
             System.err.println("❌ Accept friend request error: " + e.getMessage());
             return false;
         }
@@ -420,7 +466,8 @@ public class DatabaseManager {
         String query = "UPDATE friend_requests SET status = 'rejected' " +
                       "WHERE from_username = ? AND to_username = ? AND status = 'pending'";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, fromUser);
             pstmt.setString(2, toUser);
             return pstmt.executeUpdate() > 0;
@@ -439,7 +486,8 @@ public class DatabaseManager {
                       "WHERE to_username = ? AND status = 'pending' " +
                       "ORDER BY created_at DESC";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
 
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -466,7 +514,8 @@ public class DatabaseManager {
                       "FROM friends " +
                       "WHERE user1 = ? OR user2 = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
             pstmt.setString(2, username);
             pstmt.setString(3, username);
@@ -491,7 +540,8 @@ public class DatabaseManager {
         String query = "SELECT * FROM friends WHERE " +
                       "(user1 = ? AND user2 = ?) OR (user1 = ? AND user2 = ?)";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             String u1 = user1.compareTo(user2) < 0 ? user1 : user2;
             String u2 = user1.compareTo(user2) < 0 ? user2 : user1;
 
@@ -516,7 +566,8 @@ public class DatabaseManager {
         String query = "DELETE FROM friends WHERE " +
                       "(user1 = ? AND user2 = ?) OR (user1 = ? AND user2 = ?)";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(query);
             String u1 = user1.compareTo(user2) < 0 ? user1 : user2;
             String u2 = user1.compareTo(user2) < 0 ? user2 : user1;
 
@@ -533,29 +584,52 @@ public class DatabaseManager {
     }
 
     /**
-     * Close database connection
+     * Close database connection.
+     * If the write-behind thread is still writing after its timeout, the
+     * connections are left open (the JVM is exiting anyway) rather than
+     * closed under a transaction in progress
      */
     public void close() {
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                System.out.println("📁 Database connection closed");
+            if (writeBehind != null && !writeBehind.close()) { // Ghi nốt điểm và lịch sử trận đang chờ
+                System.err.println("❌ Write-behind queue still flushing, database connections left open");
+                return;
+            }
+            if (connections != null) {
+                connections.close();
+                System.out.println("📁 Database connections closed");
             }
         } catch (SQLException e) {
             System.err.println("❌ Error closing database: " + e.getMessage());
         }
     }
     
+    /**
+     * Connection wait times (writer and reader pool), for monitoring
+     */
+    public Map<String, String> getConnectionMetrics() {
+        return connections.getMetrics();
+    }
+
+    /**
+     * Group commit of scores and match history: rows, commits, batch sizes
+     */
+    public Map<String, String> getWriteBehindMetrics() {
+        return writeBehind.getMetrics();
+    }
+
     /**
      * Get total number of registered users
      */
     public int getTotalUsers() {
         String query = "SELECT COUNT(*) as total FROM users";
         
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-            if (rs.next()) {
-                return rs.getInt("total");
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("total");
+                }
             }
         } catch (SQLException e) {
             System.err.println("❌ Count users error: " + e.getMessage());
@@ -570,10 +644,12 @@ public class DatabaseManager {
     public int getTotalGames() {
         String query = "SELECT COUNT(*) as total FROM scores";
         
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-            if (rs.next()) {
-                return rs.getInt("total");
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("total");
+                }
             }
         } catch (SQLException e) {
             System.err.println("❌ Count games error: " + e.getMessage());
@@ -583,10 +659,12 @@ public class DatabaseManager {
     }
 
     /**
-     * Save match history to database
+     * Save match history, and its replay file if any, in the same group commit
+     * @return completes with the id of the new match_history row once committed
+     *         (durable across an application crash, not an OS crash or power loss)
      */
-    public boolean saveMatchHistory(String roomId, String player1, String player2,
-                                    int player1Score, int player2Score) {
+    public CompletableFuture<Long> saveMatchHistory(String roomId, String player1, String player2,
+                                                    int player1Score, int player2Score, String replayFile) {
         String winner = null;
         String matchResult;
 
@@ -603,19 +681,181 @@ public class DatabaseManager {
         String query = "INSERT INTO match_history (room_id, player1, player2, player1_score, player2_score, winner, match_result) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        String replayQuery = "INSERT OR REPLACE INTO match_replays (match_id, replay_file) VALUES (?, ?)";
+        String matchWinner = winner;
+
+        return writeBehind.submit(lease -> {
+            PreparedStatement pstmt = lease.prepare(query, Statement.RETURN_GENERATED_KEYS);
             pstmt.setString(1, roomId);
             pstmt.setString(2, player1);
             pstmt.setString(3, player2);
             pstmt.setInt(4, player1Score);
             pstmt.setInt(5, player2Score);
-            pstmt.setString(6, winner);
+            pstmt.setString(6, matchWinner);
             pstmt.setString(7, matchResult);
             pstmt.executeUpdate();
-            return true;
+
+            long matchId;
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No id generated for match in room " + roomId);
+                }
+                matchId = keys.getLong(1);
+            }
+
+            if (replayFile != null) {
+                PreparedStatement replay = lease.prepare(replayQuery);
+                replay.setLong(1, matchId);
+                replay.setString(2, replayFile);
+                replay.executeUpdate();
+            }
+            return matchId;
+        });
+    }
+
+    /**
+     * Remove the match_replays rows of replay files that were deleted
+     * @return completes with the number of rows removed once committed
+     */
+    public CompletableFuture<Integer> deleteReplays(List<String> replayFiles) {
+        String query = "DELETE FROM match_replays WHERE replay_file = ?";
+
+        return writeBehind.submit(lease -> {
+            PreparedStatement pstmt = lease.prepare(query);
+            for (String replayFile : replayFiles) {
+                pstmt.setString(1, replayFile);
+                pstmt.addBatch();
+            }
+            int removed = 0;
+            for (int count : pstmt.executeBatch()) {
+                removed += Math.max(0, count);
+            }
+            return removed;
+        });
+    }
+
+    /**
+     * Get the replay file recorded for a match_history row
+     * @return the file path, or null if none was recorded
+     */
+    public String getReplayFile(long matchId) {
+        String query = "SELECT replay_file FROM match_replays WHERE match_id = ?";
+
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
+            pstmt.setLong(1, matchId);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString("replay_file");
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Get match replay error: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Create a tournament row
+     * @return id of the new tournament, or -1 on failure
+     */
+    public long createTournament(String name, String organizer) {
+        String query = "INSERT INTO tournaments (name, organizer) VALUES (?, ?)";
+
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(query, Statement.RETURN_GENERATED_KEYS);
+            pstmt.setString(1, name);
+            pstmt.setString(2, organizer);
+            pstmt.executeUpdate();
+
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getLong(1) : -1;
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Create tournament error: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Save the pairings of a tournament round in one transaction
+     * @param pairsBySlot slot -> {player1, player2}; player2 is null for a bye
+     */
+    public boolean saveTournamentMatches(long tournamentId, int round, Map<Integer, String[]> pairsBySlot) {
+        String query = "INSERT OR REPLACE INTO tournament_matches (tournament_id, round, slot, player1, player2) " +
+                "VALUES (?, ?, ?, ?, ?)";
+
+        try (ConnectionManager.Lease lease = connections.write()) {
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = lease.prepare(query);
+                for (Map.Entry<Integer, String[]> entry : pairsBySlot.entrySet()) {
+                    pstmt.setLong(1, tournamentId);
+                    pstmt.setInt(2, round);
+                    pstmt.setInt(3, entry.getKey());
+                    pstmt.setString(4, entry.getValue()[0]);
+                    pstmt.setString(5, entry.getValue()[1]);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+
+                connection.commit();
+                return true;
+
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Save tournament matches error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Record the winner of a tournament match
+     * @param roomId room the match was played in, or null (bye / walkover)
+     */
+    public boolean saveTournamentResult(long tournamentId, int round, int slot, String winner, String roomId) {
+        String query = "UPDATE tournament_matches SET winner = ?, room_id = ? " +
+                "WHERE tournament_id = ? AND round = ? AND slot = ?";
+
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(query);
+            pstmt.setString(1, winner);
+            pstmt.setString(2, roomId);
+            pstmt.setLong(3, tournamentId);
+            pstmt.setInt(4, round);
+            pstmt.setInt(5, slot);
+            return pstmt.executeUpdate() > 0;
+
+        } catch (SQLException e) {
+            System.err.println("Save tournament result error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Mark a tournament as finished
+     */
+    public boolean finishTournament(long tournamentId, String winner) {
+        String query = "UPDATE tournaments SET status = 'finished', winner = ?, finished_at = CURRENT_TIMESTAMP " +
+                "WHERE id = ?";
+
+        try (ConnectionManager.Lease lease = connections.write()) {
+            PreparedStatement pstmt = lease.prepare(query);
+            pstmt.setString(1, winner);
+            pstmt.setLong(2, tournamentId);
+            return pstmt.executeUpdate() > 0;
 
         } catch (SQLException e) {
-            System.err.println("Save match history error: " + e.getMessage());
+            System.err.println("Finish tournament error: " + e.getMessage());
             return false;
         }
     }
@@ -633,7 +873,8 @@ public class DatabaseManager {
 
         StringBuilder sb = new StringBuilder();
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
             pstmt.setString(2, username);
             pstmt.setInt(3, limit);
@@ -697,7 +938,8 @@ public class DatabaseManager {
                         "FROM match_history " +
                         "WHERE player1 = ? OR player2 = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (ConnectionManager.Lease lease = connections.read()) {
+            PreparedStatement pstmt = lease.prepare(query);
             pstmt.setString(1, username);
             pstmt.setString(2, username);
             pstmt.setString(3, username);
@@ -0,0 +1,234 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit for the rows written when a game ends (scores, match history).
+ *
+ * Rows are queued and written by one "db-write-behind" thread, many rows per
+ * transaction: a batch is committed when MAX_BATCH_ROWS rows are waiting or
+ * FLUSH_INTERVAL_MILLIS after its oldest row arrived, whichever comes first.
+ * The number of commits per second is therefore bounded by the flush
+ * interval, not by how many games end at once, and a burst of game endings
+ * shares one commit instead of queueing on the writer for one commit each.
+ *
+ * Each row gets a CompletableFuture that completes after its transaction
+ * has committed, or exceptionally if the row could not be written. In WAL
+ * mode with synchronous=NORMAL a commit survives an application crash, but
+ * not an OS crash or power loss: the WAL is fsynced only at checkpoints, so
+ * the last commits before one can be rolled back.
+ * If a batch fails, its rows are retried one per transaction so a single bad
+ * row does not take the others down with it.
+ */
+class WriteBehindQueue {
+    static final int MAX_BATCH_ROWS = 256;
+    static final long FLUSH_INTERVAL_MILLIS = 50;
+
+    /**
+     * One row to write inside the batch transaction
+     */
+    interface Row<T> {
+        T write(ConnectionManager.Lease lease) throws SQLException;
+    }
+
+    private final ConnectionManager connections;
+    private final ArrayDeque<Pending<?>> queue = new ArrayDeque<>();
+    private long oldestQueuedAt; // nanoTime của dòng cũ nhất đang chờ
+    private boolean closed;
+    private Thread thread;
+
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder rowsFailed = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final AtomicLong maxBatchRows = new AtomicLong();
+    private volatile long lastFlushMicros;
+
+    WriteBehindQueue(ConnectionManager connections) {
+        this.connections = connections;
+    }
+
+    void start() {
+        thread = new Thread(this::run, "db-write-behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a row; the future completes once it is committed
+     */
+    <T> CompletableFuture<T> submit(Row<T> row) {
+        Pending<T> pending = new Pending<>(row);
+        synchronized (this) {
+            if (closed) {
+                pending.future.completeExceptionally(new IllegalStateException("Database is closed"));
+                return pending.future;
+            }
+            if (queue.isEmpty()) {
+                oldestQueuedAt = System.nanoTime();
+            }
+            queue.addLast(pending);
+            if (queue.size() == 1 || queue.size() == MAX_BATCH_ROWS) {
+                notifyAll();
+            }
+        }
+        return pending.future;
+    }
+
+    /**
+     * Stop accepting rows and wait until the queued ones are written
+     * @return false if the writer thread was still running when the wait timed out
+     */
+    boolean close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return !thread.isAlive();
+        }
+        return true;
+    }
+
+    Map<String, String> getMetrics() {
+        Map<String, String> metrics = new HashMap<>();
+        long written = rowsWritten.sum();
+        long commitCount = commits.sum();
+        synchronized (this) {
+            metrics.put("write_behind_queued", String.valueOf(queue.size()));
+        }
+        metrics.put("write_behind_rows", String.valueOf(written));
+        metrics.put("write_behind_failed", String.valueOf(rowsFailed.sum()));
+        metrics.put("write_behind_commits", String.valueOf(commitCount));
+        metrics.put("write_behind_avg_batch", commitCount == 0 ? "0" : String.format("%.1f", (double) written / commitCount));
+        metrics.put("write_behind_max_batch", String.valueOf(maxBatchRows.get()));
+        metrics.put("write_behind_last_flush_us", String.valueOf(lastFlushMicros));
+        return metrics;
+    }
+
+    private void run() {
+        while (true) {
+            List<Pending<?>> batch = nextBatch();
+            if (batch == null) {
+                return;
+            }
+            flush(batch);
+        }
+    }
+
+    /**
+     * Wait for a full batch or the oldest row's deadline
+     * @return the rows to commit, or null once closed and drained
+     */
+    private synchronized List<Pending<?>> nextBatch() {
+        while (true) {
+            if (queue.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                waitQuietly(0);
+                continue;
+            }
+            long remaining = TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS) - (System.nanoTime() - oldestQueuedAt);
+            if (queue.size() >= MAX_BATCH_ROWS || remaining <= 0 || closed) {
+                break;
+            }
+            waitQuietly(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+
+        List<Pending<?>> batch = new ArrayList<>(Math.min(queue.size(), MAX_BATCH_ROWS));
+        while (!queue.isEmpty() && batch.size() < MAX_BATCH_ROWS) {
+            batch.add(queue.pollFirst());
+        }
+        oldestQueuedAt = System.nanoTime(); // Các dòng còn lại được tính từ bây giờ
+        return batch;
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            closed = true; // Dừng nhận thêm, ghi nốt những gì đang chờ
+        }
+    }
+
+    private void flush(List<Pending<?>> batch) {
+        long start = System.nanoTime();
+        try {
+            commit(batch);
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Write-behind batch of " + batch.size() + " rows failed, retrying one by one: "
+                    + e.getMessage());
+            for (Pending<?> pending : batch) {
+                try {
+                    commit(Collections.singletonList(pending));
+                } catch (SQLException | RuntimeException rowError) {
+                    rowsFailed.increment();
+                    pending.future.completeExceptionally(rowError);
+                }
+            }
+        }
+        lastFlushMicros = (System.nanoTime() - start) / 1000;
+    }
+
+    /**
+     * Write the rows in one transaction; the futures complete only after the commit
+     */
+    private void commit(List<Pending<?>> rows) throws SQLException {
+        try (ConnectionManager.Lease lease = connections.write()) {
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            try {
+                for (Pending<?> pending : rows) {
+                    pending.write(lease);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        commits.increment();
+        rowsWritten.add(rows.size());
+        maxBatchRows.accumulateAndGet(rows.size(), Math::max);
+        for (Pending<?> pending : rows) {
+            pending.complete();
+        }
+    }
+
+    private static final class Pending<T> {
+        final Row<T> row;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+
+        Pending(Row<T> row) {
+            this.row = row;
+        }
+
+        void write(ConnectionManager.Lease lease) throws SQLException {
+            result = row.write(lease);
+        }
+
+        void complete() {
+            future.complete(result);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package server;
 
 import database.DatabaseManager;
+import game.ClockSync;
 import models.Message;
 import utils.JsonBuilder;
 import utils.ServerErrorHandler;
@@ -10,21 +11,41 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static constants.GameConstants.*;
 
 /**
- * Handles individual client connections
+ * Handles individual client connections.
+ *
+ * Outgoing messages go through a per-client queue drained by its own writer
+ * thread, so sendMessage never blocks the caller (game ticks, room broadcasts)
+ * on a slow socket. A client that falls OUTBOX_LIMIT messages behind is
+ * disconnected.
  */
 public class ClientHandler implements Runnable {
+    static final int OUTBOX_LIMIT = 1024;
+    private static final long WRITER_DRAIN_MILLIS = 1000;
+    private static final Message END_OF_OUTBOX = new Message("", ""); // so sánh theo tham chiếu
+    // Người chơi còn trong giải đấu không được vào phòng khác (sẽ bị xử thua vòng sau)
+    static final String TOURNAMENT_BUSY = "You are still in a tournament";
+
     private final Socket socket;
     private final DatabaseManager database;
     private ObjectOutputStream out;
+    private final BlockingQueue<Message> outbox = new LinkedBlockingQueue<>(OUTBOX_LIMIT);
+    private Thread writer;
     private ObjectInputStream in;
     private String username;
     private volatile boolean running = true;
     private String currentRoomId = null;
+    private GameRoom currentRoom; // phòng ứng với currentRoomId, giữ sẵn cho các message trong ván
+    private final ClockSync clock = new ClockSync(); // đồng hồ client so với server
 
     public ClientHandler(Socket socket, DatabaseManager database) {
         this.socket = socket;
@@ -35,6 +56,9 @@ public class ClientHandler implements Runnable {
     public void run() {
         try {
             out = new ObjectOutputStream(socket.getOutputStream());
+            writer = new Thread(this::writeLoop, "client-writer");
+            writer.setDaemon(true);
+            writer.start();
             in = new ObjectInputStream(socket.getInputStream());
             
             while (running) {
@@ -87,15 +111,41 @@ public class ClientHandler implements Runnable {
                 case MESSAGE_TYPE_GAME_SCORE:
                     handleGameScore(msg);
                     break;
+                case MESSAGE_TYPE_GAME_INPUT:
+                    handleGameInput(msg);
+                    break;
+                case MESSAGE_TYPE_GAME_STATE_ACK:
+                    handleGameStateAck(msg);
+                    break;
                 case MESSAGE_TYPE_LEADERBOARD:
                     handleGetLeaderboard();
                     break;
                 case MESSAGE_TYPE_GET_ROOM_LIST:
                     handleGetRoomList();
                     break;
+                case MESSAGE_TYPE_QUERY_ROOMS:
+                    handleQueryRooms(msg);
+                    break;
+                case MESSAGE_TYPE_SUBSCRIBE_ROOMS:
+                    handleSubscribeRooms(msg);
+                    break;
+                case MESSAGE_TYPE_UNSUBSCRIBE_ROOMS:
+                    GameServer.getRoomDirectory().unsubscribe(this);
+                    break;
                 case MESSAGE_TYPE_REQUEST_JOIN:
                     handleRequestJoin(msg);
                     break;
+                case MESSAGE_TYPE_QUICK_MATCH:
+                    handleQuickMatch();
+                    break;
+                case MESSAGE_TYPE_CANCEL_QUICK_MATCH:
+                    if (username != null && GameServer.getMatchmaking().cancel(username)) {
+                        sendMessage(new Message(MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS, "cancelled"));
+                    }
+                    break;
+                case MESSAGE_TYPE_CREATE_TOURNAMENT:
+                    handleCreateTournament(msg);
+                    break;
                 case MESSAGE_TYPE_ACCEPT_JOIN:
                     handleAcceptJoin(msg);
                     break;
@@ -117,6 +167,12 @@ public class ClientHandler implements Runnable {
                 case MESSAGE_TYPE_GET_FRIENDS:
                     handleGetFriends();
                     break;
+                case MESSAGE_TYPE_SUBSCRIBE_PRESENCE:
+                    handleSubscribePresence();
+                    break;
+                case MESSAGE_TYPE_UNSUBSCRIBE_PRESENCE:
+                    if (username != null) GameServer.getPresence().unsubscribe(username);
+                    break;
                 case MESSAGE_TYPE_GET_FRIEND_REQUESTS:
                     handleGetFriendRequests();
                     break;
@@ -139,7 +195,10 @@ public class ClientHandler implements Runnable {
                     handleLogout();
                     break;
                 case MESSAGE_TYPE_PING:
-                    sendMessage(new Message(MESSAGE_TYPE_PONG, ""));
+                    handlePing(msg);
+                    break;
+                case MESSAGE_TYPE_PONG:
+                    handlePong(msg);
                     break;
                 default:
                     System.out.println("Unknown message type: " + msg.getType());
@@ -164,17 +223,10 @@ public class ClientHandler implements Runnable {
             username = user;
             GameServer.registerClient(username, this);
             sendMessage(new Message(MESSAGE_TYPE_LOGIN_SUCCESS, "Welcome " + username + "!"));
+            sendPing(); // có mẫu đồng hồ đầu tiên trước khi vào game
             System.out.println("Login successful: " + username);
-            // Notify all friends that this user is now online
-            List<String> friends = database.getFriends(username);
-            for (String friend : friends) {
-                ClientHandler friendHandler = GameServer.getClient(friend);
-                if (friendHandler != null) {
-                    friendHandler.sendMessage(new Message(MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED,
-                            username + ";online"));
-                    System.out.println("🟢 Notified " + friend + " that " + username + " is online");
-                }
-            }
+            // Nạp danh sách bạn một lần và báo cho bạn bè đang online
+            GameServer.getPresence().userOnline(username);
         } else {
             sendMessage(new Message(MESSAGE_TYPE_LOGIN_FAIL, "Invalid username or password"));
             System.out.println("Login failed for: " + user);
@@ -219,15 +271,18 @@ public class ClientHandler implements Runnable {
             sendMessage(new Message(MESSAGE_TYPE_ERROR, "Not logged in"));
             return;
         }
+        if (GameServer.getTournaments().isEntrant(username)) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, TOURNAMENT_BUSY));
+            return;
+        }
         
-        String roomId = "ROOM" + System.currentTimeMillis();
+        GameServer.getMatchmaking().cancel(username);
+        String roomId = GameServer.newRoomId("ROOM");
         GameRoom room = GameServer.createRoom(roomId, username);
         room.addPlayer(username);
         this.currentRoomId = roomId;
         sendMessage(new Message(MESSAGE_TYPE_ROOM_CREATED, roomId + ":" + room.getPlayerCount()));
         room.broadcastRoomUpdate();
-        GameServer.broadcastRoomListUpdate();
-        System.out.println("Broadcasted room list update (room created)");
     }
     
     private void handleJoinRoom(Message msg) {
@@ -237,6 +292,11 @@ public class ClientHandler implements Runnable {
         }
         
         String roomId = msg.getData().trim();
+        if (GameServer.getTournaments().isEntrant(username)) {
+            sendMessage(new Message(MESSAGE_TYPE_JOIN_FAIL, TOURNAMENT_BUSY));
+            return;
+        }
+        GameServer.getMatchmaking().cancel(username);
         GameRoom room = GameServer.getRoom(roomId);
         
         if (room == null) {
@@ -249,6 +309,7 @@ public class ClientHandler implements Runnable {
 
         if (playersAlreadyInRoom != null) {
             this.currentRoomId = roomId;
+            GameServer.getJoinRequests().joined(username, roomId);
 
             sendMessage(new Message(MESSAGE_TYPE_ROOM_JOINED, roomId + ":" + room.getPlayerCount()));
 
@@ -333,7 +394,7 @@ public class ClientHandler implements Runnable {
     private void handleGameScore(Message msg) {
         if (username == null || currentRoomId == null) return;
 
-        MultiplayerGameSession session = GameServer.getGameSession(currentRoomId);
+        MultiplayerGameSession session = currentSession();
 
         // Nếu có session và game đang chạy
         if (session != null && session.isActive()) {
@@ -342,6 +403,40 @@ public class ClientHandler implements Runnable {
         }
     }
     
+    private void handleGameInput(Message msg) {
+        if (username == null || currentRoomId == null) return;
+
+        MultiplayerGameSession session = currentSession();
+        if (session != null && session.isActive()) {
+            session.handlePlayerInput(this, msg.getData());
+        }
+    }
+
+    private void handleGameStateAck(Message msg) {
+        if (username == null || currentRoomId == null) return;
+
+        MultiplayerGameSession session = currentSession();
+        if (session != null && session.isActive()) {
+            session.handleStateAck(username, msg.getData());
+        }
+    }
+
+    /**
+     * Session of the current room. The room is resolved by name once and kept,
+     * so in-game messages reach the session by its dense id without hashing.
+     */
+    private MultiplayerGameSession currentSession() {
+        String roomId = currentRoomId;
+        if (roomId == null) return null;
+        GameRoom room = currentRoom;
+        if (room == null || !room.getRoomId().equals(roomId)) {
+            room = GameServer.getRoom(roomId);
+            if (room == null) return null;
+            currentRoom = room;
+        }
+        return GameServer.getGameSession(room);
+    }
+
     private void handleGetLeaderboard() {
         String leaderboard = database.getLeaderboard(10);
         sendMessage(new Message(MESSAGE_TYPE_LEADERBOARD, leaderboard));
@@ -377,6 +472,85 @@ public class ClientHandler implements Runnable {
         sendMessage(new Message(MESSAGE_TYPE_S2C_MATCH_STATS, statsData));
     }
 
+    /**
+     * Vào hàng chờ quick match; rating tính từ lịch sử thắng/thua
+     */
+    private void handleQuickMatch() {
+        if (username == null) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Not logged in"));
+            return;
+        }
+        if (!GameServer.getRoomsOfPlayer(username).isEmpty()) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS, "error;Leave your room first"));
+            return;
+        }
+        if (GameServer.getTournaments().isEntrant(username)) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS, "error;" + TOURNAMENT_BUSY));
+            return;
+        }
+        MatchmakingQueue matchmaking = GameServer.getMatchmaking();
+        int rating = MatchmakingQueue.ratingOf(database.getMatchStats(username));
+        if (!matchmaking.enqueue(username, rating)) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS, "error;Already searching"));
+        } else if (matchmaking.isQueued(username)) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS, "queued;" + matchmaking.size()));
+        }
+    }
+
+    /**
+     * Phòng do server tạo (quick match, giải đấu)
+     */
+    void enterRoom(String roomId) {
+        this.currentRoomId = roomId;
+    }
+
+    /**
+     * Phòng do server tạo đã bị đóng sau trận
+     */
+    void leaveRoom(String roomId) {
+        if (roomId.equals(currentRoomId)) {
+            this.currentRoomId = null;
+        }
+    }
+
+    /**
+     * Handle create tournament request
+     * Data: "name;user1,user2,..." (chỉ người đang online và chưa ở trong giải khác được tham gia)
+     */
+    private void handleCreateTournament(Message msg) {
+        if (username == null) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Not logged in"));
+            return;
+        }
+        String[] parts = msg.getData().split(";", 2);
+        String name = parts[0].trim();
+        if (name.isEmpty() || parts.length < 2) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_TOURNAMENT_STATUS, "error;Invalid tournament request"));
+            return;
+        }
+
+        List<String> requested = new ArrayList<>();
+        for (String entrant : parts[1].split(",")) {
+            if (!entrant.trim().isEmpty()) requested.add(entrant.trim());
+        }
+        TournamentManager tournaments = GameServer.getTournaments();
+        List<String> entrants = tournaments.eligibleEntrants(requested);
+        if (entrants.size() < TournamentManager.MIN_ENTRANTS || entrants.size() > TournamentManager.MAX_ENTRANTS) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_TOURNAMENT_STATUS, "error;Need "
+                    + TournamentManager.MIN_ENTRANTS + "-" + TournamentManager.MAX_ENTRANTS
+                    + " online entrants not in a room, got " + entrants.size()));
+            return;
+        }
+
+        long tournamentId = tournaments.create(name, username, entrants);
+        if (tournamentId < 0) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_TOURNAMENT_STATUS, "error;Could not create tournament"));
+        } else {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_TOURNAMENT_STATUS,
+                    "created;" + tournamentId + ";" + entrants.size()));
+        }
+    }
+
     /**
      * Handle get room list request
      */
@@ -385,6 +559,60 @@ public class ClientHandler implements Runnable {
         sendMessage(new Message(MESSAGE_TYPE_S2C_ROOM_LIST, roomListJson));
     }
 
+    /**
+     * Handle paginated room query
+     * Data: "limit;cursor;filters;createdAfterMs" (cursor rỗng = trang đầu, filters: notFull,friends)
+     */
+    private void handleQueryRooms(Message msg) {
+        if (username == null) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Not logged in"));
+            return;
+        }
+        String[] parts = (msg.getData() == null ? "" : msg.getData()).split(";", -1);
+        int limit = 20;
+        long createdAfter = 0;
+        try {
+            if (parts.length > 0 && !parts[0].isEmpty()) limit = Integer.parseInt(parts[0].trim());
+            if (parts.length > 3 && !parts[3].isEmpty()) createdAfter = Long.parseLong(parts[3].trim());
+        } catch (NumberFormatException e) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Invalid room query"));
+            return;
+        }
+        String cursor = parts.length > 1 && !parts[1].isEmpty() ? parts[1] : null;
+        String filters = parts.length > 2 ? parts[2] : "";
+        boolean notFull = filters.contains("notFull");
+
+        Set<String> candidates = null;
+        if (filters.contains("friends")) {
+            // Phòng có bạn bè: đi từ index username -> phòng thay vì quét mọi phòng
+            candidates = new HashSet<>();
+            for (String friend : GameServer.getPresence().getFriends(username)) {
+                candidates.addAll(GameServer.getRoomsOfPlayer(friend));
+            }
+        }
+
+        String page = GameServer.getRoomDirectory().query(limit, cursor, notFull, candidates, createdAfter);
+        sendMessage(new Message(MESSAGE_TYPE_S2C_ROOM_PAGE, page));
+    }
+
+    /**
+     * Client mở màn hình danh sách phòng: nhận delta thay vì poll
+     * Data: version cuối client đã có (-1 = cần snapshot)
+     */
+    private void handleSubscribeRooms(Message msg) {
+        if (username == null) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Not logged in"));
+            return;
+        }
+        long sinceVersion = -1;
+        try {
+            sinceVersion = Long.parseLong(msg.getData().trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            // Không có version hợp lệ -> gửi snapshot
+        }
+        GameServer.getRoomDirectory().subscribe(this, sinceVersion);
+    }
+
     /**
      * Handle join request to a room
      */
@@ -402,24 +630,23 @@ public class ClientHandler implements Runnable {
             return;
         }
 
-        if (room.getPlayerCount() >= 2) {
+        if (room.isFull()) {
             sendMessage(new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST_FAIL, "Room is full"));
             return;
         }
 
-        // Send request to room creator
-        String creator = room.getCreator();
-        ClientHandler creatorHandler = GameServer.getClient(creator);
-
-        if (creatorHandler != null) {
-            creatorHandler.sendMessage(new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST,
-                username + ";" + roomId));
-            sendMessage(new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST_SENT,
-                "Join request sent to " + creator));
-            System.out.println(username + " requested to join room " + roomId);
-        } else {
+        if (GameServer.isPlayerInRoom(username, roomId)) {
+            sendMessage(new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST_FAIL, "You are already in this room"));
+            return;
+        }
+
+        if (GameServer.getClient(room.getCreator()) == null) {
             sendMessage(new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST_FAIL, "Room creator offline"));
+            return;
         }
+
+        // Gửi cho chủ phòng (yêu cầu trùng đang chờ thì không gửi lại)
+        GameServer.getJoinRequests().request(username, room);
     }
 
     /**
@@ -427,24 +654,11 @@ public class ClientHandler implements Runnable {
      */
     private void handleAcceptJoin(Message msg) {
         String[] parts = msg.getData().split(";");
-        if (parts.length != 2) return;
-
-        String requestingPlayer = parts[0];
-        String roomId = parts[1];
-
-        GameRoom room = GameServer.getRoom(roomId);
-        if (room == null) return;
-
-        // Check if requester is the room creator
-        if (!username.equals(room.getCreator())) {
-            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Only room creator can accept requests"));
-            return;
-        }
+        if (username == null || parts.length != 2) return;
 
-        ClientHandler requesterHandler = GameServer.getClient(requestingPlayer);
-        if (requesterHandler != null) {
-            requesterHandler.sendMessage(new Message(MESSAGE_TYPE_S2C_JOIN_APPROVED, roomId));
-            System.out.println(username + " accepted " + requestingPlayer + "'s join request");
+        // Yêu cầu đã được kiểm tra khi gửi; người được chấp nhận vào phòng luôn
+        if (!GameServer.getJoinRequests().accept(username, parts[0], parts[1])) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Join request is no longer pending"));
         }
     }
 
@@ -453,26 +667,10 @@ public class ClientHandler implements Runnable {
      */
     private void handleRejectJoin(Message msg) {
         String[] parts = msg.getData().split(";");
-        if (parts.length != 2) return;
-
-        String requestingPlayer = parts[0];
-        String roomId = parts[1];
-
-        GameRoom room = GameServer.getRoom(roomId);
-        if (room == null) return;
-
-        // Check if requester is the room creator
-        if (!username.equals(room.getCreator())) {
-            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Only room creator can reject requests"));
-            return;
-        }
+        if (username == null || parts.length != 2) return;
 
-        ClientHandler requesterHandler = GameServer.getClient(requestingPlayer);
-        if (requesterHandler != null) {
-            requesterHandler.sendMessage(new Message(MESSAGE_TYPE_S2C_JOIN_REJECTED,
-                "Join request rejected by " + username));
-            System.out.println(username + " rejected " + requestingPlayer + "'s join request");
-        }
+        // Không còn yêu cầu (đã hết hạn) thì không cần báo gì
+        GameServer.getJoinRequests().reject(username, parts[0], parts[1]);
     }
 
     /**
@@ -539,6 +737,7 @@ public class ClientHandler implements Runnable {
         String fromUser = ((String) msg.getData()).trim();
 
         if (database.acceptFriendRequest(fromUser, username)) {
+            GameServer.getPresence().friendAdded(fromUser, username);
             sendMessage(new Message(MESSAGE_TYPE_S2C_FRIEND_ACCEPTED, fromUser));
 
             // Notify the requester
@@ -548,12 +747,6 @@ public class ClientHandler implements Runnable {
                     username + " accepted your friend request"));
             }
 
-            // Send updated friend lists to both
-            sendFriendList();
-            if (requesterHandler != null) {
-                requesterHandler.sendFriendList();
-            }
-
             System.out.println(username + " accepted friend request from " + fromUser);
         } else {
             sendMessage(new Message(MESSAGE_TYPE_ERROR, "Failed to accept friend request"));
@@ -596,15 +789,28 @@ public class ClientHandler implements Runnable {
         sendFriendList();
     }
 
+    /**
+     * Lobby opened: friend list snapshot, then presence events are pushed
+     */
+    private void handleSubscribePresence() {
+        if (username == null) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "Not logged in"));
+            return;
+        }
+        GameServer.getPresence().subscribe(username);
+        sendFriendList();
+    }
+
     /**
      * Send friend list to client
      */
     private void sendFriendList() {
-        List<String> friends = database.getFriends(username);
+        PresenceService presence = GameServer.getPresence();
+        List<String> friends = presence.getFriends(username);
 
         JsonBuilder.ArrayBuilder builder = new JsonBuilder.ArrayBuilder();
         for (String friend : friends) {
-            boolean isOnline = GameServer.getClient(friend) != null;
+            boolean isOnline = presence.isOnline(friend);
             String friendObj = JsonBuilder.buildFriendObject(friend, isOnline);
             builder.addObject(friendObj);
         }
@@ -638,18 +844,15 @@ public class ClientHandler implements Runnable {
         String friendUsername = msg.getData().trim();
 
         if (database.removeFriend(username, friendUsername)) {
+            GameServer.getPresence().friendRemoved(username, friendUsername);
             sendMessage(new Message(MESSAGE_TYPE_S2C_FRIEND_REMOVED, friendUsername));
 
             // Notify the other user if online
             ClientHandler friendHandler = GameServer.getClient(friendUsername);
             if (friendHandler != null) {
                 friendHandler.sendMessage(new Message(MESSAGE_TYPE_S2C_FRIEND_REMOVED, username));
-                friendHandler.sendFriendList();
             }
 
-            // Send updated friend list
-            sendFriendList();
-
             System.out.println("👥 " + username + " removed friend " + friendUsername);
         } else {
             sendMessage(new Message(MESSAGE_TYPE_ERROR, "Failed to remove friend"));
@@ -671,19 +874,29 @@ public class ClientHandler implements Runnable {
         String friendUsername = parts[0];
         String roomId = parts[1];
 
-        if (!database.areFriends(username, friendUsername)) {
+        if (!GameServer.getPresence().areFriends(username, friendUsername)) {
             sendMessage(new Message(MESSAGE_TYPE_ERROR, "Can only invite friends"));
             return;
         }
 
-        ClientHandler friendHandler = GameServer.getClient(friendUsername);
-        if (friendHandler != null) {
-            friendHandler.sendMessage(new Message(MESSAGE_TYPE_S2C_ROOM_INVITE, username + ";" + roomId));
-            sendMessage(new Message(MESSAGE_TYPE_S2C_INVITE_SENT, "Invite sent to " + friendUsername));
-            System.out.println("📧 " + username + " invited " + friendUsername + " to room " + roomId);
-        } else {
+        GameRoom room = GameServer.getRoom(roomId);
+        if (room == null || !GameServer.isPlayerInRoom(username, roomId)) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, "You are not in this room"));
+            return;
+        }
+
+        if (GameServer.isPlayerInRoom(friendUsername, roomId)) {
+            sendMessage(new Message(MESSAGE_TYPE_ERROR, friendUsername + " is already in this room"));
+            return;
+        }
+
+        if (GameServer.getClient(friendUsername) == null) {
             sendMessage(new Message(MESSAGE_TYPE_ERROR, "Friend is offline"));
+            return;
         }
+
+        // Lời mời trùng đang chờ thì không gửi lại
+        GameServer.getJoinRequests().invite(username, friendUsername, room);
     }
 
     /**
@@ -717,7 +930,7 @@ public class ClientHandler implements Runnable {
             return;
         }
 
-        if (room.removePlayer(playerToKick)) {
+        if (GameServer.isPlayerInRoom(playerToKick, roomId) && room.removePlayer(playerToKick)) {
             ClientHandler kickedHandler = GameServer.getClient(playerToKick);
             if (kickedHandler != null) {
                 kickedHandler.setCurrentRoomId(null);
@@ -736,15 +949,8 @@ public class ClientHandler implements Runnable {
         if (username != null) {
             System.out.println("User logged out: " + username);
 
-            // Notify friends that user is now offline
-            List<String> friends = database.getFriends(username);
-            for (String friend : friends) {
-                ClientHandler friendHandler = GameServer.getClient(friend);
-                if (friendHandler != null) {
-                    friendHandler.sendMessage(new Message(MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED,
-                        username + ";offline"));
-                }
-            }
+            // Notify friends that user is now offline (cleanup cũng gọi, lần thứ hai bỏ qua)
+            GameServer.getPresence().userOffline(username);
 
             sendMessage(new Message(MESSAGE_TYPE_LOGOUT_SUCCESS, "Goodbye!"));
         }
@@ -753,19 +959,84 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     * Send message to this client
+     * Queue a message for this client (never blocks)
      */
     public void sendMessage(Message msg) {
+        if (!running) return;
+        if (!outbox.offer(msg)) {
+            System.err.println("Send queue full for " + username + ", disconnecting");
+            running = false;
+            try {
+                socket.close(); // Thread đọc thoát ra và gọi cleanup()
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    /**
+     * Writer thread: write queued messages in order, flushing once the queue is empty
+     */
+    private void writeLoop() {
         try {
-            synchronized (out) {
+            while (true) {
+                Message msg = outbox.take();
+                if (msg == END_OF_OUTBOX) break;
                 out.writeObject(msg);
-                out.flush();
+                if (outbox.isEmpty()) {
+                    out.flush();
+                }
             }
+            out.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
-            System.err.println("Failed to send message to " + username);
+            System.err.println("Failed to send message to " + username + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Client đo đồng hồ của server: PING "t0" -> PONG "t0;t1;t2" (t1, t2 theo giờ server)
+     */
+    private void handlePing(Message msg) {
+        long received = System.currentTimeMillis();
+        String t0 = msg.getData();
+        if (t0 == null || t0.isEmpty()) {
+            sendMessage(new Message(MESSAGE_TYPE_PONG, ""));
+            return;
+        }
+        sendMessage(new Message(MESSAGE_TYPE_PONG, t0 + ";" + received + ";" + System.currentTimeMillis()));
+    }
+
+    /**
+     * Server đo đồng hồ của client: trả lời cho sendPing()
+     */
+    private void handlePong(Message msg) {
+        long received = System.currentTimeMillis();
+        String[] parts = msg.getData().split(";");
+        if (parts.length != 3) return;
+        try {
+            clock.addSample(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]), received);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid PONG from " + username + ": " + msg.getData());
         }
     }
 
+    /**
+     * Gửi PING "t0" (giờ server) để ước lượng RTT và độ lệch đồng hồ của client
+     */
+    public void sendPing() {
+        sendMessage(new Message(MESSAGE_TYPE_PING, String.valueOf(System.currentTimeMillis())));
+    }
+
+    /**
+     * RTT và độ lệch đồng hồ (client - server) đo được của client này
+     */
+    public ClockSync getClockSync() {
+        return clock;
+    }
+
     /**
      * Get username of this client
      */
@@ -785,12 +1056,14 @@ public class ClientHandler implements Runnable {
      */
     private void cleanup() {
         running = false;
+        if (username != null) GameServer.getMatchmaking().cancel(username);
+        GameServer.getRoomDirectory().unsubscribe(this);
 
         if (username != null) {
             this.currentRoomId = null;
-            for (String roomId : GameServer.getAllRoomIds()) {
+            for (String roomId : GameServer.getRoomsOfPlayer(username)) {
                 GameRoom room = GameServer.getRoom(roomId);
-                if (room != null && room.getPlayers().contains(username)) {
+                if (room != null) {
 
                     MultiplayerGameSession session = GameServer.getGameSession(roomId);
                     // Kiểm tra xem game có đang chạy không
@@ -827,6 +1100,19 @@ public class ClientHandler implements Runnable {
                 }
             }
             GameServer.unregisterClient(username);
+            GameServer.getPresence().userOffline(username);
+        }
+
+        // Gửi nốt các message đang chờ (vd. LOGOUT_SUCCESS) rồi mới đóng socket
+        if (writer != null) {
+            if (!outbox.offer(END_OF_OUTBOX)) {
+                writer.interrupt();
+            }
+            try {
+                writer.join(WRITER_DRAIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         try {
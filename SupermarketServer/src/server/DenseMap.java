@@ -0,0 +1,90 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Values keyed by the dense ints of an {@link IdTable}: one array slot per
+ * id instead of a hash map entry per key. Reads are a bounds check and an
+ * array read, without locking; writes take the map lock (the array only
+ * grows under it).
+ */
+class DenseMap<V> {
+    private volatile AtomicReferenceArray<V> slots = new AtomicReferenceArray<>(64);
+    private int size;
+
+    V get(int id) {
+        AtomicReferenceArray<V> current = slots;
+        return id >= 0 && id < current.length() ? current.get(id) : null;
+    }
+
+    synchronized V put(int id, V value) {
+        ensureCapacity(id);
+        V previous = slots.getAndSet(id, value);
+        if (previous == null) size++;
+        return previous;
+    }
+
+    synchronized V putIfAbsent(int id, V value) {
+        ensureCapacity(id);
+        if (slots.compareAndSet(id, null, value)) {
+            size++;
+            return null;
+        }
+        return slots.get(id);
+    }
+
+    synchronized V remove(int id) {
+        AtomicReferenceArray<V> current = slots;
+        if (id < 0 || id >= current.length()) {
+            return null;
+        }
+        V previous = current.getAndSet(id, null);
+        if (previous != null) size--;
+        return previous;
+    }
+
+    /**
+     * Remove only if the slot still holds this value
+     */
+    synchronized boolean remove(int id, V value) {
+        AtomicReferenceArray<V> current = slots;
+        if (id >= 0 && id < current.length() && current.compareAndSet(id, value, null)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Snapshot of the values
+     */
+    List<V> values() {
+        AtomicReferenceArray<V> current = slots;
+        List<V> values = new ArrayList<>();
+        for (int i = 0; i < current.length(); i++) {
+            V value = current.get(i);
+            if (value != null) values.add(value);
+        }
+        return values;
+    }
+
+    private void ensureCapacity(int id) {
+        AtomicReferenceArray<V> current = slots;
+        if (id < current.length()) {
+            return;
+        }
+        int capacity = current.length();
+        while (capacity <= id) capacity *= 2;
+        AtomicReferenceArray<V> grown = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        slots = grown;
+    }
+}
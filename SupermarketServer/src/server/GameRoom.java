@@ -11,19 +11,27 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a game room for multiplayer
+ *
+ * Membership is an immutable list that is replaced (copy-on-write) under
+ * the room lock on every join or leave. Readers and broadcasts just read
+ * the volatile field and iterate that snapshot without any lock, so a slow
+ * socket during a broadcast never delays a join, leave or kick.
  */
 public class GameRoom {
     private final String roomId;
     private final String creator;
-    private final List<String> players;
+    private volatile List<String> players = Collections.emptyList(); // snapshot bất biến
+    private volatile int[] playerIds = new int[0]; // id của players (GameServer.userId), dùng khi broadcast
+    private int index = -1; // id dày của phòng trong GameServer, -1 khi chưa đăng ký
     private final Map<String, Integer> scores;
     private final int maxPlayers = 2;
     private final long createdTime;
+    private volatile long expiresAt; // hạn xóa khi phòng bị bỏ không, xem RoomReaper
+    private volatile boolean listed = true; // hiện trong danh sách phòng của lobby
     
     public GameRoom(String roomId, String creator) {
         this.roomId = roomId;
         this.creator = creator;
-        this.players = Collections.synchronizedList(new ArrayList<>());
         this.scores = new ConcurrentHashMap<>();
         this.createdTime = System.currentTimeMillis();
     }
@@ -32,17 +40,22 @@ public class GameRoom {
      * Add player to room
      * @return true if added successfully
      */
-    public synchronized boolean addPlayer(String username) {
-        if (players.size() >= maxPlayers) {
-            return false;
-        }
-        
-        if (players.contains(username)) {
-            return false;
+    public boolean addPlayer(String username) {
+        synchronized (this) {
+            if (players.size() >= maxPlayers) {
+                return false;
+            }
+
+            if (players.contains(username)) {
+                return false;
+            }
+
+            players = withPlayer(players, username);
+            playerIds = idsOf(players);
+            scores.put(username, 0);
+            GameServer.indexPlayer(username, roomId);
         }
-        
-        players.add(username);
-        scores.put(username, 0);
+        GameServer.onMembershipChanged(this);
         return true;
     }
     
@@ -54,34 +67,47 @@ public class GameRoom {
      * @param username the username to add
      * @return list of existing players if successfully added, null if failed
      */
-    public synchronized List<String> getPlayersAndTryAddPlayer(String username) {
-        if (players.size() >= maxPlayers) {
-            return null;
-        }
-
-        if (players.contains(username)) {
-            return null;
-        }
-
-        // Get snapshot of existing players before adding new one
-        List<String> existingPlayers = new ArrayList<>(players);
+    public List<String> getPlayersAndTryAddPlayer(String username) {
+        List<String> existingPlayers;
+        synchronized (this) {
+            if (players.size() >= maxPlayers) {
+                return null;
+            }
 
-        // Add the new player
-        players.add(username);
-        scores.put(username, 0);
+            if (players.contains(username)) {
+                return null;
+            }
 
+            // Snapshot trước khi thêm chính là danh sách người chơi cũ
+            existingPlayers = players;
+            players = withPlayer(existingPlayers, username);
+            playerIds = idsOf(players);
+            scores.put(username, 0);
+            GameServer.indexPlayer(username, roomId);
+        }
+        GameServer.onMembershipChanged(this);
         return existingPlayers;
     }
 
     /**
-     * Remove player from room
+     * Remove player from room.
+     * Nếu phòng trống sau khi xóa, GameServer thu hồi phòng ngay
      */
-    public synchronized boolean removePlayer(String username) {
-        boolean removed = players.remove(username);
-        if (removed) {
+    public boolean removePlayer(String username) {
+        synchronized (this) {
+            List<String> current = players;
+            if (!current.contains(username)) {
+                return false;
+            }
+            List<String> next = new ArrayList<>(current);
+            next.remove(username);
+            players = Collections.unmodifiableList(next);
+            playerIds = idsOf(players);
             scores.remove(username);
+            GameServer.unindexPlayer(username, roomId);
         }
-        return removed;
+        GameServer.onMembershipChanged(this);
+        return true;
     }
     
     /**
@@ -128,12 +154,10 @@ public class GameRoom {
      * Broadcast message to all players in room
      */
     public void broadcast(Message message) {
-        synchronized (players) {
-            for (String player : players) {
-                ClientHandler handler = GameServer.getClient(player);
-                if (handler != null) {
-                    handler.sendMessage(message);
-                }
+        for (int playerId : playerIds) {
+            ClientHandler handler = GameServer.getClient(playerId);
+            if (handler != null) {
+                handler.sendMessage(message);
             }
         }
     }
@@ -142,7 +166,7 @@ public class GameRoom {
      * Broadcast room update to all players in room
      */
     public void broadcastRoomUpdate() {
-        String json = JsonBuilder.buildRoomUpdate(creator, getPlayers());
+        String json = JsonBuilder.buildRoomUpdate(creator, players);
         broadcast(new Message(constants.GameConstants.MESSAGE_TYPE_S2C_ROOM_UPDATE, json));
     }
 
@@ -158,15 +182,61 @@ public class GameRoom {
     public int getPlayerCount() {
         return players.size();
     }
+
+    public int getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    public boolean isFull() {
+        return players.size() >= maxPlayers;
+    }
     
+    /**
+     * Current members (immutable snapshot, safe to keep and iterate)
+     */
     public List<String> getPlayers() {
-        return new ArrayList<>(players);
+        return players;
     }
     
     public long getCreatedTime() {
         return createdTime;
     }
 
+    /**
+     * Whether the room shows up in the lobby room browser
+     * (rooms created by the server for a match do not)
+     */
+    public boolean isListed() {
+        return listed;
+    }
+
+    void setListed(boolean listed) {
+        this.listed = listed;
+    }
+
+    /**
+     * Dense ids of the players (GameServer.userId), in the order of getPlayers()
+     */
+    int[] getPlayerIds() {
+        return playerIds;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    long getExpiresAt() {
+        return expiresAt;
+    }
+
+    void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
     public void resetScores() {
         synchronized (scores) {
             for (String player : players) {
@@ -180,18 +250,32 @@ public class GameRoom {
     }
 
     public void broadcastToOthers(Message message, String playerToExclude) {
-        synchronized (players) {
-            for (String player : players) {
-                // Chỉ gửi nếu không phải là người chơi bị loại trừ
-                if (!player.equals(playerToExclude)) {
-                    ClientHandler handler = GameServer.getClient(player);
-                    if (handler != null) {
-                        handler.sendMessage(message);
-                    }
+        int excludedId = GameServer.userId(playerToExclude);
+        for (int playerId : playerIds) {
+            // Chỉ gửi nếu không phải là người chơi bị loại trừ
+            if (playerId != excludedId) {
+                ClientHandler handler = GameServer.getClient(playerId);
+                if (handler != null) {
+                    handler.sendMessage(message);
                 }
             }
         }
     }
+
+    private static int[] idsOf(List<String> players) {
+        int[] ids = new int[players.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = GameServer.userId(players.get(i));
+        }
+        return ids;
+    }
+
+    private static List<String> withPlayer(List<String> current, String username) {
+        List<String> next = new ArrayList<>(current.size() + 1);
+        next.addAll(current);
+        next.add(username);
+        return Collections.unmodifiableList(next);
+    }
     
     @Override
     public String toString() {
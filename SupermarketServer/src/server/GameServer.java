@@ -1,20 +1,23 @@
 package server;
 
 import database.DatabaseManager;
-import utils.JsonBuilder;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Main Game Server
@@ -22,10 +25,34 @@ import java.util.concurrent.TimeUnit;
  */
 public class GameServer {
     private static final int PORT = 8888;
-    private static final Map<String, ClientHandler> connectedClients = new ConcurrentHashMap<String, ClientHandler>();
-    private static final Map<String, GameRoom> activeRooms = new ConcurrentHashMap<String, GameRoom>();
-    private static final Map<String, MultiplayerGameSession> gameSessions = new ConcurrentHashMap<>();
+    private static final int CLOCK_SYNC_INTERVAL_SECONDS = 2;
+    private static final int METRICS_LOG_INTERVAL_SECONDS = 60;
+    // Username / roomId được intern thành số nguyên dày; các bảng bên dưới là mảng đánh theo số đó.
+    // Id của user không bao giờ được trả lại (PresenceService dùng làm chỉ số bitmap),
+    // id của phòng được dùng lại sau khi phòng bị xóa.
+    private static final IdTable userIds = new IdTable();
+    private static final IdTable roomIds = new IdTable();
+    private static final DenseMap<ClientHandler> connectedClients = new DenseMap<>();
+    private static final DenseMap<GameRoom> activeRooms = new DenseMap<>();
+    private static final DenseMap<MultiplayerGameSession> gameSessions = new DenseMap<>();
+    // Gắn/bắt đầu/tháo session theo id phòng: id được dùng lại nên phải kiểm tra phòng còn giữ id đó.
+    // Thứ tự lock: sessionSlots rồi mới tới lock của session.
+    private static final Object sessionSlots = new Object();
+    // Room id không trùng kể cả giữa các lần chạy server: tiền tố + mốc khởi động + số thứ tự
+    private static final String ROOM_ID_EPOCH = Long.toString(System.currentTimeMillis(), 36).toUpperCase();
+    private static final AtomicLong roomSequence = new AtomicLong();
+    // username -> các phòng đang tham gia; cập nhật trong GameRoom.addPlayer/removePlayer
+    private static final Map<String, Set<String>> playerRooms = new ConcurrentHashMap<>();
     private static DatabaseManager database;
+    private static GameSessionPool sessionPool;
+    private static PresenceService presence;
+    private static TournamentManager tournaments;
+    private static ReplayRetention replayRetention;
+    private static final RoomReaper roomReaper = new RoomReaper();
+    private static final RoomDirectory roomDirectory = new RoomDirectory();
+    private static final MatchmakingQueue matchmaking = new MatchmakingQueue();
+    private static final TimerWheel timers = new TimerWheel();
+    private static final JoinRequests joinRequests = new JoinRequests(timers);
 
     public static void main(String[] args) {
         database = new DatabaseManager();
@@ -34,13 +61,24 @@ public class GameServer {
             return;
         }
         System.out.println("Database initialized successfully");
+        // Ghi nốt điểm/lịch sử trận còn trong hàng đợi write-behind khi server tắt
+        Runtime.getRuntime().addShutdownHook(new Thread(database::close, "database-shutdown"));
+        sessionPool = new GameSessionPool(database);
+        presence = new PresenceService(database, userIds);
+        tournaments = new TournamentManager(database);
+        replayRetention = new ReplayRetention(database);
+        replayRetention.prune();
 
         try {
             ServerSocket serverSocket = new ServerSocket(PORT);
             System.out.println("Server started on port " + PORT);
             System.out.println("Waiting for connections...\n");
 
-            startRoomCleanupThread();
+            roomReaper.start();
+            matchmaking.start();
+            timers.start("timer-wheel");
+            startClockSyncThread();
+            startMetricsLog();
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
@@ -56,27 +94,89 @@ public class GameServer {
     }
 
     /**
-     * Thread to cleanup empty rooms
+     * Thread to ping clients so each ClientHandler keeps an estimate of
+     * the client's RTT and clock offset (used for lag compensation)
      */
-    private static void startRoomCleanupThread() {
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private static void startClockSyncThread() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "clock-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
         scheduler.scheduleAtFixedRate(() -> {
-            Iterator<Map.Entry<String, GameRoom>> iterator = activeRooms.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, GameRoom> entry = iterator.next();
-                if (entry.getValue().isEmpty()) {
-                    System.out.println("Cleaning up empty room: " + entry.getKey());
-                    iterator.remove();
-                }
+            for (ClientHandler handler : connectedClients.values()) {
+                handler.sendPing();
             }
-        }, 60, 60, TimeUnit.SECONDS);
+        }, CLOCK_SYNC_INTERVAL_SECONDS, CLOCK_SYNC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Clock sync over the connected players: how many are synced and their RTT percentiles
+     */
+    public static Map<String, String> getClockMetrics() {
+        List<Long> rtts = new ArrayList<>();
+        int players = 0;
+        for (ClientHandler handler : connectedClients.values()) {
+            players++;
+            if (handler.getClockSync().isSynced()) {
+                rtts.add(handler.getClockSync().getRtt());
+            }
+        }
+        long[] sorted = new long[rtts.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = rtts.get(i);
+        }
+        Arrays.sort(sorted);
+
+        Map<String, String> metrics = new HashMap<>();
+        metrics.put("players", String.valueOf(players));
+        metrics.put("synced", String.valueOf(sorted.length));
+        metrics.put("rtt_p50_ms", String.valueOf(sorted.length == 0 ? 0 : sorted[(sorted.length - 1) / 2]));
+        metrics.put("rtt_p90_ms", String.valueOf(sorted.length == 0 ? 0 : sorted[(sorted.length - 1) * 9 / 10]));
+        metrics.put("rtt_max_ms", String.valueOf(sorted.length == 0 ? 0 : sorted[sorted.length - 1]));
+        return metrics;
+    }
+
+    /**
+     * Log every METRICS_LOG_INTERVAL_SECONDS one line with the metrics of each
+     * subsystem (clock sync, matchmaking, tournaments, join requests, database)
+     */
+    private static void startMetricsLog() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                System.out.println(metricsLine());
+            } catch (RuntimeException e) {
+                System.err.println("Metrics log failed: " + e.getMessage()); // không để task định kỳ bị hủy
+            }
+        }, METRICS_LOG_INTERVAL_SECONDS, METRICS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    static String metricsLine() {
+        Map<String, Map<String, String>> groups = new LinkedHashMap<>();
+        groups.put("clock", getClockMetrics());
+        groups.put("matchmaking", matchmaking.getMetrics());
+        groups.put("tournaments", tournaments.getMetrics());
+        groups.put("join_requests", joinRequests.getMetrics());
+        groups.put("db_connections", database.getConnectionMetrics());
+        groups.put("db_write_behind", database.getWriteBehindMetrics());
+
+        StringBuilder line = new StringBuilder("📊 Metrics:");
+        for (Map.Entry<String, Map<String, String>> group : groups.entrySet()) {
+            line.append(' ').append(group.getKey()).append(new TreeMap<>(group.getValue()));
+        }
+        return line.toString();
     }
 
     /**
      * Register a client connection
      */
     public static void registerClient(String username, ClientHandler handler) {
-        connectedClients.put(username, handler);
+        connectedClients.put(userIds.intern(username), handler);
         System.out.println("Player registered: " + username + " (Total: " + connectedClients.size() + ")");
     }
 
@@ -84,16 +184,47 @@ public class GameServer {
      * Unregister a client connection
      */
     public static void unregisterClient(String username) {
-        connectedClients.remove(username);
+        connectedClients.remove(userIds.idOf(username));
         System.out.println("Player disconnected: " + username + " (Total: " + connectedClients.size() + ")");
     }
 
+    /**
+     * Single-elimination tournaments
+     */
+    public static TournamentManager getTournaments() {
+        return tournaments;
+    }
+
+    /**
+     * Online state and friend graph of logged-in users
+     */
+    public static PresenceService getPresence() {
+        return presence;
+    }
+
+    /**
+     * New room id, unique across rooms and server restarts (e.g. "ROOM" + epoch + "-" + n)
+     */
+    public static String newRoomId(String prefix) {
+        return prefix + ROOM_ID_EPOCH + "-" + roomSequence.incrementAndGet();
+    }
+
+    /**
+     * Dense int id of a user (assigned on first use, never reused)
+     */
+    static int userId(String username) {
+        return userIds.intern(username);
+    }
+
     /**
      * Create a new game room
      */
     public static GameRoom createRoom(String roomId, String creator) {
         GameRoom room = new GameRoom(roomId, creator);
-        activeRooms.put(roomId, room);
+        int index = roomIds.intern(roomId);
+        room.setIndex(index);
+        activeRooms.put(index, room);
+        roomReaper.touch(room);
         System.out.println("Room created: " + roomId + " by " + creator);
         return room;
     }
@@ -102,36 +233,129 @@ public class GameServer {
      * Get a game room by ID
      */
     public static GameRoom getRoom(String roomId) {
-        return activeRooms.get(roomId);
+        return activeRooms.get(roomIds.idOf(roomId));
     }
 
     /**
      * Delete a room
      */
     public static void deleteRoom(String roomId) {
-        activeRooms.remove(roomId);
+        int index = roomIds.idOf(roomId);
+        GameRoom room = activeRooms.remove(index);
+        if (room == null) {
+            return; // Đã bị thu hồi trước đó
+        }
+        // Người chơi còn lại trong phòng bị xóa không còn là thành viên nữa
+        for (String player : room.getPlayers()) {
+            unindexPlayer(player, roomId);
+        }
+        releaseGameSession(index, roomId);
+        roomIds.release(roomId);
+        roomDirectory.roomRemoved(roomId);
         System.out.println("🗑️ Room deleted: " + roomId);
     }
 
+    /**
+     * Membership event from GameRoom (called outside the room lock).
+     * An empty room is reclaimed immediately; otherwise its idle deadline moves.
+     */
+    static void onMembershipChanged(GameRoom room) {
+        if (room.getIndex() < 0 || activeRooms.get(room.getIndex()) != room) {
+            return; // Phòng chưa đăng ký hoặc đã bị xóa
+        }
+        if (room.isEmpty()) {
+            System.out.println("Reclaiming empty room: " + room.getRoomId());
+            deleteRoom(room.getRoomId());
+        } else {
+            roomReaper.touch(room);
+            if (room.isListed()) {
+                roomDirectory.roomChanged(room);
+            }
+        }
+    }
+
+    /**
+     * A game ended in a room (called by MultiplayerGameSession)
+     */
+    static void onGameFinished(String roomId, Map<String, Integer> scores, String leavingPlayer) {
+        if (tournaments != null) {
+            tournaments.matchFinished(roomId, scores, leavingPlayer);
+        }
+    }
+
+    /**
+     * Close a room nobody has used for RoomReaper.IDLE_TIMEOUT_MILLIS
+     */
+    static void expireRoom(String roomId) {
+        System.out.println("Closing idle room: " + roomId);
+        broadcastToRoom(roomId, new models.Message(constants.GameConstants.MESSAGE_TYPE_ROOM_DELETED,
+                "Room was closed after being idle."));
+        deleteRoom(roomId);
+    }
+
+    /**
+     * Record that a player joined a room (called by GameRoom under its lock)
+     */
+    static void indexPlayer(String username, String roomId) {
+        playerRooms.computeIfAbsent(username, k -> ConcurrentHashMap.newKeySet()).add(roomId);
+    }
+
+    /**
+     * Record that a player left a room (called by GameRoom under its lock)
+     */
+    static void unindexPlayer(String username, String roomId) {
+        playerRooms.computeIfPresent(username, (k, rooms) -> {
+            rooms.remove(roomId);
+            return rooms.isEmpty() ? null : rooms;
+        });
+    }
+
+    /**
+     * Rooms a player is currently in (usually zero or one)
+     */
+    public static Set<String> getRoomsOfPlayer(String username) {
+        Set<String> rooms = playerRooms.get(username);
+        return rooms == null ? java.util.Collections.emptySet() : new java.util.HashSet<>(rooms);
+    }
+
+    /**
+     * Check whether a player is in a given room
+     */
+    public static boolean isPlayerInRoom(String username, String roomId) {
+        Set<String> rooms = playerRooms.get(username);
+        return rooms != null && rooms.contains(roomId);
+    }
+
     /**
      * Get all room IDs
      */
     public static java.util.Set<String> getAllRoomIds() {
-        return new java.util.HashSet<>(activeRooms.keySet());
+        Set<String> ids = new java.util.HashSet<>();
+        for (GameRoom room : activeRooms.values()) {
+            ids.add(room.getRoomId());
+        }
+        return ids;
     }
 
     /**
      * Get a client handler by username
      */
     public static ClientHandler getClient(String username) {
-        return connectedClients.get(username);
+        return connectedClients.get(userIds.idOf(username));
+    }
+
+    /**
+     * Get a client handler by user id (see userId), without hashing the name
+     */
+    static ClientHandler getClient(int userId) {
+        return connectedClients.get(userId);
     }
 
     /**
      * Broadcast message to all players in a room
      */
     public static void broadcastToRoom(String roomId, models.Message message) {
-        GameRoom room = activeRooms.get(roomId);
+        GameRoom room = getRoom(roomId);
         if (room != null) {
             room.broadcast(message);
         }
@@ -141,45 +365,123 @@ public class GameServer {
      * Get list of all active rooms as JSON
      */
     public static String getRoomListJson() {
-        List<Map<String, Object>> rooms = new ArrayList<>();
+        return roomDirectory.snapshotJson();
+    }
 
-        for (Map.Entry<String, GameRoom> entry : activeRooms.entrySet()) {
-            GameRoom room = entry.getValue();
-            Map<String, Object> roomData = new HashMap<>();
-            roomData.put("roomId", room.getRoomId());
-            roomData.put("creator", room.getCreator());
-            roomData.put("playerCount", room.getPlayerCount());
-            roomData.put("maxPlayers", 4);
-            rooms.add(roomData);
-        }
+    /**
+     * Versioned room list pushed to clients browsing the lobby
+     */
+    public static RoomDirectory getRoomDirectory() {
+        return roomDirectory;
+    }
 
-        return JsonBuilder.buildObjectArray(rooms);
+    /**
+     * Pending join requests and room invites
+     */
+    public static JoinRequests getJoinRequests() {
+        return joinRequests;
+    }
+
+    static ReplayRetention getReplayRetention() {
+        return replayRetention;
+    }
+
+    public static MatchmakingQueue getMatchmaking() {
+        return matchmaking;
     }
 
     /**
-     * Broadcast updated room list to all connected clients
+     * Room + session for two players paired by the quick-match queue
+     * (no create/request/accept round trips)
+     * @return false if the room could not be created (a player joined another room meanwhile)
      */
-    public static void broadcastRoomListUpdate() {
-        String roomListJson = getRoomListJson();
-        models.Message updateMessage = new models.Message("S2C_ROOM_LIST", roomListJson);
+    static boolean startQuickMatch(String player1, String player2) {
+        String roomId = newRoomId("QM");
+        Map<String, String[]> roomPlayers = new HashMap<>();
+        roomPlayers.put(roomId, new String[]{player1, player2});
+        if (createMatchRooms(roomPlayers).isEmpty()) {
+            return false;
+        }
+        startGameSession(roomId);
+        return true;
+    }
+
+    /**
+     * Create rooms for matches set up by the server (quick match, tournament) in one pass.
+     * Players are added before a room is registered, so no membership events are
+     * published, and the rooms are not listed in the room browser.
+     * @param roomPlayers roomId -> players (first one is the creator)
+     * @return the rooms created; a room whose id is taken, whose players cannot be added
+     *         or whose players are already in another room is skipped
+     */
+    static List<GameRoom> createMatchRooms(Map<String, String[]> roomPlayers) {
+        List<GameRoom> created = new ArrayList<>(roomPlayers.size());
+        for (Map.Entry<String, String[]> entry : roomPlayers.entrySet()) {
+            String roomId = entry.getKey();
+            String[] players = entry.getValue();
+            GameRoom room = new GameRoom(roomId, players[0]);
+            room.setListed(false);
+            boolean added = true;
+            for (String player : players) {
+                // Sau khi thêm, người chơi chỉ được ở đúng phòng này (không đang ở phòng khác)
+                added &= room.addPlayer(player) && getRoomsOfPlayer(player).size() == 1;
+            }
+            if (!added || roomIds.idOf(roomId) >= 0) {
+                for (String player : room.getPlayers()) {
+                    unindexPlayer(player, roomId);
+                }
+                continue;
+            }
+            int index = roomIds.intern(roomId);
+            room.setIndex(index);
+            activeRooms.put(index, room);
+            roomReaper.touch(room);
+            created.add(room);
+        }
 
-        for (Map.Entry<String, ClientHandler> entry : connectedClients.entrySet()) {
-            entry.getValue().sendMessage(updateMessage);
+        for (GameRoom room : created) {
+            String joined = room.getRoomId() + ":" + room.getPlayerCount();
+            for (String player : room.getPlayers()) {
+                ClientHandler handler = getClient(player);
+                if (handler != null) {
+                    handler.enterRoom(room.getRoomId());
+                    handler.sendMessage(new models.Message(constants.GameConstants.MESSAGE_TYPE_ROOM_JOINED, joined));
+                }
+            }
+            room.broadcastRoomUpdate();
         }
+        System.out.println("Match rooms created: " + created.size() + "/" + roomPlayers.size());
+        return created;
     }
 
     /**
      * Start a multiplayer game session
      */
     public static MultiplayerGameSession startGameSession(String roomId) {
-        GameRoom room = activeRooms.get(roomId);
-        if (room == null || gameSessions.containsKey(roomId)) {
+        GameRoom room = getRoom(roomId);
+        if (room == null) {
             return null;
         }
 
-        MultiplayerGameSession session = new MultiplayerGameSession(roomId, room, database);
-        gameSessions.put(roomId, session);
-        session.startGame();
+        MultiplayerGameSession session;
+        synchronized (sessionSlots) {
+            int index = room.getIndex();
+            if (index < 0 || activeRooms.get(index) != room) {
+                return null; // Phòng vừa bị xóa, id có thể đã thuộc về phòng khác
+            }
+            // Session của ván trước vẫn gắn với phòng -> dùng lại cho rematch
+            session = gameSessions.get(index);
+            if (session != null && session.isActive()) {
+                return null;
+            }
+            if (session == null) {
+                session = sessionPool.acquire(roomId, room);
+                gameSessions.put(index, session);
+            }
+            // Bắt đầu trong lock: deleteRoom không thể trả session về pool giữa lúc gắn và lúc chạy
+            session.startGame();
+        }
+        roomReaper.touch(room);
         return session;
     }
 
@@ -187,14 +489,29 @@ public class GameServer {
      * (MỚI) Lấy một game session đang hoạt động
      */
     public static MultiplayerGameSession getGameSession(String roomId) {
-        return gameSessions.get(roomId);
+        return gameSessions.get(roomIds.idOf(roomId));
     }
 
     /**
-     * (MỚI) Xóa một game session (thường được gọi bởi chính session khi kết thúc)
+     * Game session of a room already resolved, by its dense id (null if the room was deleted)
      */
-    public static void removeGameSession(String roomId) {
-        gameSessions.remove(roomId);
-        System.out.println("Session removed for room: " + roomId);
+    static MultiplayerGameSession getGameSession(GameRoom room) {
+        int index = room.getIndex();
+        return index >= 0 && activeRooms.get(index) == room ? gameSessions.get(index) : null;
+    }
+
+    /**
+     * Tách game session khỏi phòng (khi phòng bị xóa) và trả về pool
+     */
+    private static void releaseGameSession(int index, String roomId) {
+        MultiplayerGameSession session;
+        synchronized (sessionSlots) {
+            session = gameSessions.remove(index); // Phòng đã rời activeRooms: không ai gắn thêm vào slot này
+        }
+        if (session != null) {
+            sessionPool.release(session);
+            System.out.println("Session released for room: " + roomId + " (sessions created: "
+                    + sessionPool.getCreatedCount() + ", reused: " + sessionPool.getReusedCount() + ")");
+        }
     }
 }
@@ -0,0 +1,90 @@
+package server;
+
+import database.DatabaseManager;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of reusable {@link MultiplayerGameSession} objects.
+ * A session stays attached to its room across rematches and is only
+ * returned here when the room is deleted. Idle sessions are kept up to a
+ * global bound and handed to the next room that starts a game.
+ * All sessions share one timer scheduler instead of a thread pool each.
+ * Ticks only queue their messages (ClientHandler.sendMessage does not block
+ * on the socket), so a slow client cannot hold up the ticks of other rooms;
+ * the scheduler is sized to the cores for the tick work itself.
+ */
+public class GameSessionPool {
+    private static final int MAX_IDLE_SESSIONS = 32;
+    private static final int TIMER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final DatabaseManager database;
+    private final ArrayDeque<MultiplayerGameSession> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public GameSessionPool(DatabaseManager database) {
+        this.database = database;
+        this.timer = Executors.newScheduledThreadPool(TIMER_THREADS, r -> {
+            Thread thread = new Thread(r, "game-session-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Take an idle session (or create one) and bind it to a room
+     */
+    public MultiplayerGameSession acquire(String roomId, GameRoom room) {
+        MultiplayerGameSession session;
+        synchronized (idle) {
+            session = idle.pollFirst();
+        }
+
+        if (session != null) {
+            reused.incrementAndGet();
+            session.bind(roomId, room);
+        } else {
+            created.incrementAndGet();
+            session = new MultiplayerGameSession(roomId, room, database, timer);
+        }
+        return session;
+    }
+
+    /**
+     * Return a session whose room is gone. Dropped if the pool is full.
+     * A session still playing or ending its game is returned once endGame is done.
+     */
+    public void release(MultiplayerGameSession session) {
+        if (session == null) return;
+        session.whenIdle(() -> recycle(session));
+    }
+
+    private void recycle(MultiplayerGameSession session) {
+        session.unbind();
+        synchronized (idle) {
+            if (idle.size() < MAX_IDLE_SESSIONS) {
+                idle.addFirst(session);
+            }
+        }
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+}
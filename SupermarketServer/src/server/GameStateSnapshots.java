@@ -0,0 +1,105 @@
+package server;
+
+import models.GameStateDelta;
+import models.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static constants.GameConstants.MESSAGE_TYPE_S2C_GAME_STATE_DELTA;
+
+/**
+ * Keeps recent game state snapshots of one session and sends each client only
+ * the fields that changed since the last snapshot that client acknowledged.
+ * A client with no usable baseline, or that has gone too long without one,
+ * receives a full keyframe.
+ */
+public class GameStateSnapshots {
+    private static final int HISTORY_SIZE = 32;
+    private static final int KEYFRAME_INTERVAL = 12;
+
+    private final int[] historySeq = new int[HISTORY_SIZE];
+    private final List<Map<String, String>> history = new ArrayList<>(Collections.nCopies(HISTORY_SIZE, null));
+    private final Map<String, ClientBaseline> baselines = new ConcurrentHashMap<>();
+    private int seq = 0;
+
+    /**
+     * Store a new snapshot and send each player its delta.
+     * The deltas are built under the lock and sent after it is released, so a
+     * slow socket does not hold up acks or reset().
+     */
+    public void publish(Map<String, String> snapshot, int[] playerIds) {
+        List<ClientHandler> handlers = new ArrayList<>(playerIds.length);
+        List<Message> messages = new ArrayList<>(playerIds.length);
+        synchronized (this) {
+            seq++;
+            history.set(seq % HISTORY_SIZE, snapshot);
+            historySeq[seq % HISTORY_SIZE] = seq;
+
+            for (int playerId : playerIds) {
+                ClientHandler handler = GameServer.getClient(playerId);
+                if (handler == null) continue;
+                String player = handler.getUsername();
+
+                ClientBaseline baseline = baselines.computeIfAbsent(player, p -> new ClientBaseline());
+                Map<String, String> base = baseFor(baseline);
+                if (base == null) {
+                    baseline.lastKeyframeSeq = seq;
+                }
+
+                String data = GameStateDelta.encode(seq, baseline.ackedSeq, base, snapshot);
+                handlers.add(handler);
+                messages.add(new Message(MESSAGE_TYPE_S2C_GAME_STATE_DELTA, data));
+            }
+        }
+
+        for (int i = 0; i < handlers.size(); i++) {
+            handlers.get(i).sendMessage(messages.get(i));
+        }
+    }
+
+    /**
+     * Record that a client has applied the given snapshot.
+     * An ack of 0 means the client lost its baseline and needs a keyframe.
+     */
+    public void acknowledge(String player, int ackedSeq) {
+        ClientBaseline baseline = baselines.computeIfAbsent(player, p -> new ClientBaseline());
+        synchronized (this) {
+            if (ackedSeq == GameStateDelta.KEYFRAME || ackedSeq > baseline.ackedSeq) {
+                baseline.ackedSeq = ackedSeq;
+            }
+        }
+    }
+
+    /**
+     * Forget all snapshots and baselines (new game)
+     */
+    public synchronized void reset() {
+        seq = 0;
+        baselines.clear();
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history.set(i, null);
+            historySeq[i] = 0;
+        }
+    }
+
+    /**
+     * Baseline snapshot to diff against, or null when a keyframe is due
+     */
+    private Map<String, String> baseFor(ClientBaseline baseline) {
+        int acked = baseline.ackedSeq;
+        if (acked == GameStateDelta.KEYFRAME || seq - baseline.lastKeyframeSeq >= KEYFRAME_INTERVAL) {
+            return null;
+        }
+        int slot = acked % HISTORY_SIZE;
+        return historySeq[slot] == acked ? history.get(slot) : null;
+    }
+
+    private static class ClientBaseline {
+        int ackedSeq = GameStateDelta.KEYFRAME;
+        int lastKeyframeSeq = 0;
+    }
+}
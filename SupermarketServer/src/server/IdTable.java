@@ -0,0 +1,81 @@
+package server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns names (usernames, room ids) to small dense ints.
+ * A name is hashed once, when it is interned or resolved at the edge of the
+ * server (login, a client message naming a room); from then on it travels
+ * as an int and indexes plain arrays (see {@link DenseMap}). Released ids
+ * are reused, so the arrays stay as small as the number of live names.
+ * Lookups are lock-free; interning and releasing take the table lock.
+ */
+class IdTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private int[] free = new int[16]; // id đã trả lại, dùng lại trước
+    private int freeCount;
+    private int next;
+
+    /**
+     * Id of a name, assigning one if it has none
+     */
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            int newId = freeCount > 0 ? free[--freeCount] : next++;
+            if (newId >= names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[newId] = name;
+            ids.put(name, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Id of a name, or -1 if it is not interned
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Name of an id, or null if the id is free
+     */
+    String nameOf(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * Give a name's id back for reuse
+     */
+    synchronized void release(String name) {
+        Integer id = ids.remove(name);
+        if (id == null) {
+            return;
+        }
+        names[id] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = id;
+    }
+
+    int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost and outcome of server-side input verification.
+ * Each session keeps its own counters; the totals over all sessions are
+ * kept in static adders so the cost per event can be watched at runtime.
+ *
+ * A mismatch is a score the client claims that differs from the score the
+ * server rebuilt from the same input events. Both sides run the same GameCore
+ * on the same order stream, but events the server rejects as late (beyond lag
+ * compensation) still counted on the client, so lag can make the two diverge.
+ * The session then resyncs the client and records no mismatch for that player
+ * until the client confirms the resync; after that a mismatch means a
+ * modified client or a bug.
+ */
+class InputVerification {
+    static final int SUSPICIOUS_MISMATCHES = 3;
+
+    private static final LongAdder totalEvents = new LongAdder();
+    private static final LongAdder totalRejected = new LongAdder();
+    private static final LongAdder totalLate = new LongAdder();
+    private static final LongAdder totalMismatches = new LongAdder();
+    private static final LongAdder totalNanos = new LongAdder();
+
+    private long events;
+    private long rejected;
+    private long late;
+    private long nanos;
+    private final Map<String, Integer> mismatches = new HashMap<>();
+
+    /**
+     * Record one verified batch
+     * @param eventCount events in the batch
+     * @param rejectedCount malformed or stale events that were ignored
+     * @param lateCount events outside the match window after lag compensation
+     * @param elapsedNanos time spent parsing and applying the batch
+     */
+    void recordBatch(int eventCount, int rejectedCount, int lateCount, long elapsedNanos) {
+        events += eventCount;
+        rejected += rejectedCount;
+        late += lateCount;
+        nanos += elapsedNanos;
+        totalEvents.add(eventCount);
+        totalRejected.add(rejectedCount);
+        totalLate.add(lateCount);
+        totalNanos.add(elapsedNanos);
+    }
+
+    /**
+     * Record a claimed score that did not match the rebuilt score
+     * @return true when the player has just reached the suspicious threshold
+     */
+    boolean recordMismatch(String username) {
+        totalMismatches.increment();
+        int count = mismatches.merge(username, 1, Integer::sum);
+        return count == SUSPICIOUS_MISMATCHES;
+    }
+
+    void reset() {
+        events = 0;
+        rejected = 0;
+        late = 0;
+        nanos = 0;
+        mismatches.clear();
+    }
+
+    int getMismatches(String username) {
+        return mismatches.getOrDefault(username, 0);
+    }
+
+    String summary() {
+        return String.format("%d events, %d rejected, %d late, %d mismatches, %.0f ns/event",
+                events, rejected, late, mismatchCount(), nanosPerEvent(nanos, events));
+    }
+
+    /**
+     * Totals over all sessions since server start
+     */
+    static String globalSummary() {
+        long events = totalEvents.sum();
+        return String.format("%d events, %d rejected, %d late, %d mismatches, %.0f ns/event",
+                events, totalRejected.sum(), totalLate.sum(), totalMismatches.sum(),
+                nanosPerEvent(totalNanos.sum(), events));
+    }
+
+    private int mismatchCount() {
+        int count = 0;
+        for (int value : mismatches.values()) {
+            count += value;
+        }
+        return count;
+    }
+
+    private static double nanosPerEvent(long nanos, long events) {
+        return events == 0 ? 0 : (double) nanos / events;
+    }
+}
@@ -0,0 +1,241 @@
+package server;
+
+import models.Message;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static constants.GameConstants.*;
+
+/**
+ * Pending join requests and room invites, at most one per (user, room):
+ *   REQUEST  the user asked the room creator to let them in
+ *   INVITE   a room member invited the user
+ *
+ * An entry lives until it is accepted, rejected, made moot by the user
+ * joining, or expires on the shared timer wheel. Another request for the
+ * same (user, room) while one is pending is absorbed, so the host is asked
+ * once however often the button is clicked. The two kinds complete each
+ * other: a request to a room the user was invited to, or an invite from the
+ * creator to a user who asked to join, puts the user in the room at once.
+ *
+ * Accept and reject are a single map lookup: the entry keeps the room and
+ * host it was validated against, and an accepted user is added to the room
+ * directly (ROOM_JOINED) instead of being sent back to ask again.
+ */
+public class JoinRequests {
+    static final long REQUEST_TTL_MILLIS = 30_000;
+    static final long INVITE_TTL_MILLIS = 60_000;
+
+    private enum Kind { REQUEST, INVITE }
+
+    private final TimerWheel timers;
+    private final Map<String, Pending> pending = new HashMap<>(); // "user\0roomId" -> yêu cầu đang chờ
+    private final LongAdder absorbed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    JoinRequests(TimerWheel timers) {
+        this.timers = timers;
+    }
+
+    /**
+     * A user asks to join a room (room exists, has a free slot, creator online)
+     */
+    public void request(String user, GameRoom room) {
+        String host = room.getCreator();
+        boolean forward = false;
+        Pending invite = null;
+        synchronized (this) {
+            Pending entry = pending.get(key(user, room.getRoomId()));
+            if (entry == null) {
+                add(Kind.REQUEST, user, room, host, REQUEST_TTL_MILLIS);
+                forward = true;
+            } else if (entry.kind == Kind.INVITE) {
+                remove(entry);
+                invite = entry;
+            } else {
+                absorbed.increment();
+            }
+        }
+
+        if (invite != null) {
+            admit(user, room);
+            return;
+        }
+        if (forward) {
+            send(host, new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST, user + ";" + room.getRoomId()));
+            System.out.println(user + " requested to join room " + room.getRoomId());
+        }
+        send(user, new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST_SENT, "Join request sent to " + host));
+    }
+
+    /**
+     * A room member invites a user (already checked: friends, online, not in the room)
+     */
+    public void invite(String inviter, String user, GameRoom room) {
+        boolean forward = false;
+        Pending request = null;
+        synchronized (this) {
+            Pending entry = pending.get(key(user, room.getRoomId()));
+            if (entry == null) {
+                add(Kind.INVITE, user, room, inviter, INVITE_TTL_MILLIS);
+                forward = true;
+            } else if (entry.kind == Kind.REQUEST && entry.host.equals(inviter)) {
+                remove(entry);
+                request = entry;
+            } else {
+                absorbed.increment();
+            }
+        }
+
+        if (request != null) {
+            admit(user, room);
+            return;
+        }
+        if (forward) {
+            send(user, new Message(MESSAGE_TYPE_S2C_ROOM_INVITE, inviter + ";" + room.getRoomId()));
+            System.out.println("📧 " + inviter + " invited " + user + " to room " + room.getRoomId());
+        }
+        send(inviter, new Message(MESSAGE_TYPE_S2C_INVITE_SENT, "Invite sent to " + user));
+    }
+
+    /**
+     * The creator accepts a pending request
+     * @return false if there is no such request (answered, expired or not theirs)
+     */
+    public boolean accept(String host, String user, String roomId) {
+        Pending entry;
+        synchronized (this) {
+            entry = pending.get(key(user, roomId));
+            if (entry == null || entry.kind != Kind.REQUEST || !entry.host.equals(host)) {
+                return false;
+            }
+            remove(entry);
+        }
+        System.out.println(host + " accepted " + user + "'s join request");
+        admit(user, entry.room);
+        return true;
+    }
+
+    /**
+     * The creator rejects a pending request
+     * @return false if there is no such request
+     */
+    public boolean reject(String host, String user, String roomId) {
+        synchronized (this) {
+            Pending entry = pending.get(key(user, roomId));
+            if (entry == null || entry.kind != Kind.REQUEST || !entry.host.equals(host)) {
+                return false;
+            }
+            remove(entry);
+        }
+        send(user, new Message(MESSAGE_TYPE_S2C_JOIN_REJECTED, "Join request rejected by " + host));
+        System.out.println(host + " rejected " + user + "'s join request");
+        return true;
+    }
+
+    /**
+     * The user joined the room some other way: nothing is pending any more
+     */
+    public synchronized void joined(String user, String roomId) {
+        Pending entry = pending.get(key(user, roomId));
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = new HashMap<>();
+        synchronized (this) {
+            metrics.put("pending", String.valueOf(pending.size()));
+        }
+        metrics.put("duplicates_absorbed", String.valueOf(absorbed.sum()));
+        metrics.put("expired", String.valueOf(expired.sum()));
+        return metrics;
+    }
+
+    private void add(Kind kind, String user, GameRoom room, String host, long ttlMillis) {
+        Pending entry = new Pending(kind, user, room, host);
+        pending.put(entry.key, entry);
+        entry.timeout = timers.schedule(ttlMillis, () -> expire(entry));
+    }
+
+    private void remove(Pending entry) {
+        pending.remove(entry.key);
+        entry.timeout.cancel();
+    }
+
+    private void expire(Pending entry) {
+        synchronized (this) {
+            if (pending.get(entry.key) != entry) {
+                return; // Đã được trả lời
+            }
+            pending.remove(entry.key);
+        }
+        expired.increment();
+        if (entry.kind == Kind.REQUEST) {
+            send(entry.user, new Message(MESSAGE_TYPE_S2C_JOIN_REQUEST_FAIL,
+                    "Join request to " + entry.room.getRoomId() + " expired"));
+        }
+    }
+
+    /**
+     * Put an accepted user straight into the room
+     */
+    private static void admit(String user, GameRoom room) {
+        ClientHandler handler = GameServer.getClient(user);
+        if (handler == null) {
+            return;
+        }
+        String roomId = room.getRoomId();
+        if (GameServer.getRoom(roomId) != room) {
+            handler.sendMessage(new Message(MESSAGE_TYPE_JOIN_FAIL, "Room not found"));
+            return;
+        }
+        if (GameServer.getTournaments().isEntrant(user)) {
+            handler.sendMessage(new Message(MESSAGE_TYPE_JOIN_FAIL, ClientHandler.TOURNAMENT_BUSY));
+            return;
+        }
+        List<String> playersAlreadyInRoom = room.getPlayersAndTryAddPlayer(user);
+        if (playersAlreadyInRoom == null) {
+            handler.sendMessage(new Message(MESSAGE_TYPE_JOIN_FAIL, "Room is full or you're already in it"));
+            return;
+        }
+        GameServer.getMatchmaking().cancel(user);
+        handler.enterRoom(roomId);
+        handler.sendMessage(new Message(MESSAGE_TYPE_ROOM_JOINED, roomId + ":" + room.getPlayerCount()));
+        room.broadcastRoomUpdate();
+        System.out.println(user + " joined room " + roomId + " (" + room.getPlayerCount() + "/"
+                + room.getMaxPlayers() + ")");
+    }
+
+    private static void send(String username, Message message) {
+        ClientHandler handler = GameServer.getClient(username);
+        if (handler != null) {
+            handler.sendMessage(message);
+        }
+    }
+
+    private static String key(String user, String roomId) {
+        return user + '\0' + roomId;
+    }
+
+    private static final class Pending {
+        final Kind kind;
+        final String key;
+        final String user;
+        final GameRoom room;
+        final String host; // REQUEST: chủ phòng được hỏi, INVITE: người mời
+        TimerWheel.Timeout timeout;
+
+        Pending(Kind kind, String user, GameRoom room, String host) {
+            this.kind = kind;
+            this.key = key(user, room.getRoomId());
+            this.user = user;
+            this.room = room;
+            this.host = host;
+        }
+    }
+}
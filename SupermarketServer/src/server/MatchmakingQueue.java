@@ -0,0 +1,266 @@
+package server;
+
+import models.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static constants.GameConstants.MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS;
+
+/**
+ * Quick-match queue: pairs waiting players by rating, widening the
+ * accepted rating gap the longer they wait.
+ *
+ * Tickets live in a skip list ordered by rating, so the closest opponent
+ * of a new ticket is one of its two neighbours (lower / higher): O(log n)
+ * with thousands of players queued. A sweep every second walks the list
+ * once and pairs adjacent tickets whose gap has become acceptable because
+ * one of them waited long enough.
+ *
+ * A ticket's accepted gap is BASE_SPREAD + SPREAD_PER_SECOND * waitSeconds
+ * (at most MAX_SPREAD); two tickets match when the gap is within the larger
+ * of their two spreads, so the longer waiter decides.
+ */
+public class MatchmakingQueue {
+    static final int BASE_RATING = 1000;
+    static final int RATING_PER_WIN = 25;
+
+    static final int BASE_SPREAD = 100;
+    static final int SPREAD_PER_SECOND = 20;
+    static final int MAX_SPREAD = 1000;
+    static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    private static final int WAIT_SAMPLES = 1024;
+
+    private static final Comparator<Ticket> BY_RATING =
+            Comparator.comparingInt((Ticket t) -> t.rating).thenComparingLong(t -> t.sequence);
+
+    private final ConcurrentSkipListSet<Ticket> queue = new ConcurrentSkipListSet<>(BY_RATING);
+    private final Map<String, Ticket> byUser = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder matchesMade = new LongAdder();
+
+    // Thời gian chờ (ms) của các trận gần nhất, dùng tính percentile
+    private final long[] waitSamples = new long[WAIT_SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+
+    /**
+     * Start the periodic sweep
+     */
+    void start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "matchmaking");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweep,
+                SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rating from match results: 1000 + 25 per win - 25 per loss
+     */
+    public static int ratingOf(Map<String, Integer> matchStats) {
+        int wins = matchStats.getOrDefault("wins", 0);
+        int losses = matchStats.getOrDefault("losses", 0);
+        return BASE_RATING + RATING_PER_WIN * (wins - losses);
+    }
+
+    /**
+     * Queue a player, or match them right away if an opponent is close enough
+     * @return false if the player is already queued
+     */
+    public boolean enqueue(String username, int rating) {
+        Ticket partner;
+        Ticket ticket;
+        synchronized (this) {
+            if (byUser.containsKey(username)) {
+                return false;
+            }
+            ticket = new Ticket(username, rating, System.currentTimeMillis(), sequence.incrementAndGet());
+            partner = findPartner(ticket, ticket.enqueuedAt);
+            if (partner == null) {
+                queue.add(ticket);
+                byUser.put(username, ticket);
+            } else {
+                remove(partner);
+            }
+        }
+        if (partner != null) {
+            dispatch(partner, ticket, System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    /**
+     * Leave the queue (cancel, disconnect, joined a room)
+     */
+    public synchronized boolean cancel(String username) {
+        Ticket ticket = byUser.get(username);
+        if (ticket == null) {
+            return false;
+        }
+        remove(ticket);
+        return true;
+    }
+
+    public boolean isQueued(String username) {
+        return byUser.containsKey(username);
+    }
+
+    public int size() {
+        return byUser.size();
+    }
+
+    /**
+     * Pair adjacent tickets whose rating gap is now acceptable
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        List<Ticket[]> pairs = new ArrayList<>();
+        synchronized (this) {
+            Ticket previous = null;
+            for (Ticket ticket : queue) {
+                if (previous != null && acceptable(previous, ticket, now)) {
+                    pairs.add(new Ticket[]{previous, ticket});
+                    previous = null;
+                } else {
+                    previous = ticket;
+                }
+            }
+            for (Ticket[] pair : pairs) {
+                remove(pair[0]);
+                remove(pair[1]);
+            }
+        }
+        for (Ticket[] pair : pairs) {
+            dispatch(pair[0], pair[1], now);
+        }
+    }
+
+    /**
+     * Closest neighbour by rating that is within range, or null
+     */
+    private Ticket findPartner(Ticket ticket, long now) {
+        Ticket lower = queue.lower(ticket);
+        Ticket higher = queue.higher(ticket);
+        boolean lowerOk = lower != null && acceptable(lower, ticket, now);
+        boolean higherOk = higher != null && acceptable(ticket, higher, now);
+        if (lowerOk && higherOk) {
+            return ticket.rating - lower.rating <= higher.rating - ticket.rating ? lower : higher;
+        }
+        return lowerOk ? lower : (higherOk ? higher : null);
+    }
+
+    private static boolean acceptable(Ticket a, Ticket b, long now) {
+        int gap = Math.abs(a.rating - b.rating);
+        return gap <= Math.max(spread(a, now), spread(b, now));
+    }
+
+    private static int spread(Ticket ticket, long now) {
+        long waitedSeconds = (now - ticket.enqueuedAt) / 1000;
+        return (int) Math.min(MAX_SPREAD, BASE_SPREAD + SPREAD_PER_SECOND * waitedSeconds);
+    }
+
+    private void remove(Ticket ticket) {
+        queue.remove(ticket);
+        byUser.remove(ticket.username, ticket);
+    }
+
+    /**
+     * Create the match outside the queue lock; if one side went offline or
+     * joined a room meanwhile, the other goes back to the queue with its
+     * original wait time
+     */
+    private void dispatch(Ticket a, Ticket b, long now) {
+        boolean aOnline = GameServer.getClient(a.username) != null;
+        boolean bOnline = GameServer.getClient(b.username) != null;
+        if (!aOnline || !bOnline) {
+            if (aOnline) requeue(a);
+            if (bOnline) requeue(b);
+            return;
+        }
+
+        if (!GameServer.startQuickMatch(a.username, b.username)) {
+            if (isAvailable(a.username)) requeue(a);
+            if (isAvailable(b.username)) requeue(b);
+            return;
+        }
+        recordWait(now - a.enqueuedAt);
+        recordWait(now - b.enqueuedAt);
+        matchesMade.increment();
+        System.out.println("Quick match: " + a.username + " (" + a.rating + ") vs "
+                + b.username + " (" + b.rating + ")");
+    }
+
+    private static boolean isAvailable(String username) {
+        return GameServer.getClient(username) != null && GameServer.getRoomsOfPlayer(username).isEmpty();
+    }
+
+    private synchronized void requeue(Ticket ticket) {
+        if (byUser.putIfAbsent(ticket.username, ticket) == null) {
+            queue.add(ticket);
+            ClientHandler handler = GameServer.getClient(ticket.username);
+            if (handler != null) {
+                handler.sendMessage(new Message(MESSAGE_TYPE_S2C_QUICK_MATCH_STATUS, "queued;" + size()));
+            }
+        }
+    }
+
+    private synchronized void recordWait(long waitMillis) {
+        waitSamples[nextSample] = waitMillis;
+        nextSample = (nextSample + 1) % WAIT_SAMPLES;
+        if (sampleCount < WAIT_SAMPLES) sampleCount++;
+    }
+
+    /**
+     * Queue size, matches made and wait-time percentiles over the last matches
+     */
+    public Map<String, String> getMetrics() {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(waitSamples, sampleCount);
+        }
+        Arrays.sort(sorted);
+
+        Map<String, String> metrics = new HashMap<>();
+        metrics.put("queued", String.valueOf(size()));
+        metrics.put("matches", String.valueOf(matchesMade.sum()));
+        metrics.put("wait_p50_ms", String.valueOf(percentile(sorted, 50)));
+        metrics.put("wait_p90_ms", String.valueOf(percentile(sorted, 90)));
+        metrics.put("wait_p99_ms", String.valueOf(percentile(sorted, 99)));
+        return metrics;
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static final class Ticket {
+        final String username;
+        final int rating;
+        final long enqueuedAt;
+        final long sequence;
+
+        Ticket(String username, int rating, long enqueuedAt, long sequence) {
+            this.username = username;
+            this.rating = rating;
+            this.enqueuedAt = enqueuedAt;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package server;
 
 import database.DatabaseManager;
+import game.EntityFactory;
+import game.GameCore;
+import game.OrderGenerator;
+import models.GameState;
 import models.Message;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import static constants.GameConstants.*;
 
@@ -12,37 +21,135 @@ import static constants.GameConstants.*;
  * Phiên bản "tối giản" của GameSession.
  * Chỉ hoạt động như một bộ đếm 60 giây và một trạm trung chuyển điểm.
  * Toàn bộ logic game đều nằm ở Client.
+ *
+ * Session được tái sử dụng: giữ nguyên theo phòng qua các ván rematch,
+ * và trả về GameSessionPool khi phòng bị xóa (xem bind/unbind).
  */
 public class MultiplayerGameSession {
-    private final String roomId;
-    private final GameRoom room;
-    private final Map<String, Integer> scores;
+    private String roomId;
+    private GameRoom room;
+    private Map<String, Integer> scores;
     private final DatabaseManager database;
-    private boolean gameActive = false;
+    private volatile boolean gameActive = false;
+    private volatile boolean ending = false; // endGame đang chạy: đã dừng nhận input, vẫn dùng room
+    private Runnable afterEnd; // trả session về pool, hoãn tới khi ván kết thúc xong
     private int timeLeft = 60;
-    private static final int GAME_DURATION_SECONDS = 60;
+    static final int GAME_DURATION_SECONDS = GameCore.GAME_DURATION_SECONDS;
 
-    private ScheduledExecutorService scheduler;
+    // Ván bắt đầu ở một mốc giờ server tuyệt đối, sau khoảng chờ này (để client kịp nhận GAME_START)
+    static final long START_DELAY_MILLIS = 1000;
+    // Sau khi hết giờ vẫn chờ thêm để nhận input đến muộn (thời điểm đã bù lag vẫn nằm trong ván)
+    static final long LATE_INPUT_GRACE_MILLIS = 500;
+    // Độ trễ tối đa được bù cho một input: RTT + nhịp flush/jitter, không quá MAX
+    private static final long MAX_INPUT_LATENESS_MILLIS = 500;
+    private static final long INPUT_LATENESS_SLACK_MILLIS = 100;
+    private long startAtMillis;
+    private long endAtMillis;
+
+    private final ScheduledExecutorService scheduler;
     private ScheduledFuture<?> gameTimerTask;
+    private ReplayRecorder replay;
+    private final GameStateSnapshots snapshots = new GameStateSnapshots();
+    private OrderGenerator orders;
+    private EntityFactory entities;
+    private final Map<String, GameCore> inputStates = new HashMap<>();
+    private final InputVerification verification = new InputVerification();
+    // Epoch resync gần nhất gửi cho mỗi người chơi; người chơi trong awaitingResync chưa xác nhận
+    private final Map<String, Integer> resyncEpochs = new HashMap<>();
+    private final Set<String> awaitingResync = new HashSet<>();
+    private int gamesPlayed = 0;
+
+    public MultiplayerGameSession(String roomId, GameRoom room, DatabaseManager database,
+                                  ScheduledExecutorService scheduler) {
+        this.database = database;
+        this.scheduler = scheduler;
+        bind(roomId, room);
+    }
 
-    public MultiplayerGameSession(String roomId, GameRoom room, DatabaseManager database) {
+    /**
+     * Gắn session (mới hoặc lấy từ pool) vào một phòng
+     */
+    synchronized void bind(String roomId, GameRoom room) {
         this.roomId = roomId;
         this.room = room;
-        this.database = database;
         this.scores = room.getScoresMap();
     }
 
+    /**
+     * Tách session khỏi phòng trước khi trả về pool.
+     * Giữ lại các map/buffer đã cấp phát để dùng cho phòng sau.
+     */
+    synchronized void unbind() {
+        this.roomId = null;
+        this.room = null;
+        this.scores = null;
+        inputStates.clear();
+        resyncEpochs.clear();
+        awaitingResync.clear();
+        snapshots.reset();
+    }
+
+    /**
+     * Chạy action (trả về pool) ngay nếu session rảnh; nếu ván còn đang chơi
+     * hoặc đang kết thúc thì chạy ngay sau khi endGame xong, để session không
+     * bị tách khỏi phòng giữa chừng
+     */
+    void whenIdle(Runnable action) {
+        synchronized (this) {
+            if (gameActive || ending) {
+                afterEnd = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
     /**
      * Bắt đầu game
      */
-    public void startGame() {
+    public synchronized void startGame() {
+        long setupStart = System.nanoTime();
         gameActive = true;
         timeLeft = GAME_DURATION_SECONDS;
         room.resetScores();
-        room.broadcast(new Message(MESSAGE_TYPE_GAME_START, roomId));
-        scheduler = Executors.newScheduledThreadPool(1);
+        snapshots.reset();
+        verification.reset();
+        resyncEpochs.clear();
+        awaitingResync.clear();
+
+        // Seed cho chuỗi order: cả 2 client và server đều sinh ra cùng một chuỗi order
+        long orderSeed = ThreadLocalRandom.current().nextLong();
+        orders = new OrderGenerator(orderSeed);
+        // Id/random riêng cho mỗi ván, suy ra từ seed để replay sinh lại được
+        entities = new EntityFactory(~orderSeed);
+        List<String> players = room.getPlayers();
+        inputStates.keySet().retainAll(players);
+        for (String player : players) {
+            GameCore state = inputStates.get(player);
+            if (state == null) {
+                inputStates.put(player, new GameCore(orders));
+            } else {
+                state.reset(orders);
+            }
+        }
+        replay = ReplayRecorder.create(roomId, players, orderSeed);
+
+        // Mốc bắt đầu/kết thúc theo giờ server; client tự đổi sang giờ máy mình bằng ClockSync
+        startAtMillis = System.currentTimeMillis() + START_DELAY_MILLIS;
+        endAtMillis = startAtMillis + GameCore.GAME_DURATION_MILLIS;
+        room.broadcast(new Message(MESSAGE_TYPE_GAME_START,
+                roomId + ";" + orderSeed + ";" + startAtMillis + ";" + endAtMillis));
         startGameTimer();
-        System.out.println("Game (Minimal Logic) started in room " + roomId);
+        gamesPlayed++;
+
+        System.out.printf("Game (Minimal Logic) started in room %s (game #%d on this session, setup %.2f ms)%n",
+                roomId, gamesPlayed, (System.nanoTime() - setupStart) / 1_000_000.0);
+        for (String player : players) {
+            ClientHandler handler = GameServer.getClient(player);
+            if (handler != null) {
+                System.out.println("  Clock " + player + ": " + handler.getClockSync());
+            }
+        }
     }
 
     /**
@@ -51,59 +158,244 @@ public class MultiplayerGameSession {
     private void startGameTimer() {
         gameTimerTask = scheduler.scheduleAtFixedRate(() -> {
             timeLeft--;
+            if (replay != null) replay.recordTick(currentTick(), timeLeft);
             if (timeLeft % 5 == 0) {
                 broadcastGameState();
             }
             if (timeLeft <= 0) {
-                endGame(null ,null);
+                gameTimerTask.cancel(false);
+                gameTimerTask = scheduler.schedule(() -> endGame(null, null),
+                        LATE_INPUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
             }
-        }, 1, 1, TimeUnit.SECONDS);
+        }, START_DELAY_MILLIS + 1000, 1000, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Xử lý khi nhận được điểm từ Client
+     * Xử lý điểm tuyệt đối từ Client (GAME_SCORE cũ).
+     * Không còn tin điểm này: chỉ dùng để đối chiếu với điểm server tính lại từ input
      */
     public synchronized void handlePlayerScoreUpdate(String username, String scoreData) {
         if (!gameActive) return;
 
-        try {
-            int newScore = Integer.parseInt(scoreData);
+        GameCore state = inputStates.get(username);
+        if (state == null) return;
+
+        int claimedScore = parseNumber(scoreData, 0, scoreData.length());
+        if (claimedScore < 0) {
+            System.err.println("Invalid score data from " + username + ": " + scoreData);
+            return;
+        }
+        if (awaitingResync.contains(username)) return; // Client chưa áp dụng resync, điểm của nó chưa đúng
+        if (!verifyClaimedScore(username, state, claimedScore)) {
+            broadcastGameState();
+        }
+    }
+
+    /**
+     * Xử lý batch input event từ Client: "key,orderIndex,clientTimeMs;...|claimedScore|resyncEpoch"
+     * Server tự tính điểm từ input thay vì nhận điểm tuyệt đối; claimedScore (điểm client
+     * tự tính sau batch) chỉ dùng để phát hiện sai lệch.
+     * Khi có input bị loại vì trễ, GameCore hai bên lệch nhau: server gửi S2C_GAME_RESYNC,
+     * bỏ các batch client gửi trước khi nhận resync (epoch cũ) và không đối chiếu điểm
+     * cho tới khi client gửi batch mang epoch của lần resync đó.
+     * Parse trực tiếp trên chuỗi, không tạo String/mảng trung gian cho từng event.
+     * clientTimeMs tính từ mốc bắt đầu chung (đã đồng bộ đồng hồ), nên có thể bù lag:
+     * event được nhận nếu nằm trong ván và không đến trễ quá RTT của người chơi.
+     */
+    public synchronized void handlePlayerInput(ClientHandler sender, String inputData) {
+        if (!gameActive) return;
+
+        String username = sender.getUsername();
+        GameCore state = inputStates.get(username);
+        if (state == null) return;
+
+        long arrival = System.currentTimeMillis();
+        long allowedLateness = maxInputLateness(sender);
+        long started = System.nanoTime();
+        int tick = currentTick();
+        int before = state.getScore();
+        int length = inputData.length();
+        int end = inputData.indexOf('|');
+        if (end < 0) end = length;
+        int epochStart = end < length ? inputData.indexOf('|', end + 1) : -1;
+        if (epochStart < 0) epochStart = length;
+
+        int epoch = epochStart < length ? parseNumber(inputData, epochStart + 1, length) : 0;
+        int currentEpoch = resyncEpochs.getOrDefault(username, 0);
+        if (epoch < currentEpoch) {
+            // Batch client gửi trước khi nhận resync, tính trên trạng thái đã lệch -> bỏ
+            return;
+        }
+        awaitingResync.remove(username); // Batch đầu tiên mang epoch hiện tại = client đã áp dụng resync
+
+        int eventCount = 0;
+        int rejectedCount = 0;
+        int lateCount = 0;
+        int pos = 0;
+        while (pos < end) {
+            int next = inputData.indexOf(';', pos);
+            if (next < 0 || next > end) next = end;
+
+            if (next > pos) {
+                eventCount++;
+                int keyNumber = -1, orderIndex = -1, clientTime = -1;
+                int comma1 = inputData.indexOf(',', pos);
+                int comma2 = comma1 < 0 ? -1 : inputData.indexOf(',', comma1 + 1);
+                if (comma1 >= 0 && comma2 >= 0 && comma2 < next) {
+                    keyNumber = parseNumber(inputData, pos, comma1);
+                    orderIndex = parseNumber(inputData, comma1 + 1, comma2);
+                    clientTime = parseNumber(inputData, comma2 + 1, next);
+                }
+
+                long lateness = arrival - (startAtMillis + clientTime);
+                if (keyNumber < 0 || orderIndex < 0 || clientTime < 0) {
+                    rejectedCount++;
+                } else if (clientTime > GameCore.GAME_DURATION_MILLIS || Math.abs(lateness) > allowedLateness) {
+                    lateCount++;
+                } else if (state.apply(keyNumber, orderIndex) == GameCore.RESULT_IGNORED) {
+                    rejectedCount++;
+                } else if (replay != null) {
+                    replay.recordInput(tick, username, keyNumber, orderIndex, clientTime);
+                }
+            }
+            pos = next + 1;
+        }
+        verification.recordBatch(eventCount, rejectedCount, lateCount, System.nanoTime() - started);
+
+        boolean broadcast = false;
+        int newScore = state.getScore();
+        if (newScore != before) {
             scores.put(username, newScore);
+            if (replay != null) replay.recordScore(tick, username, newScore);
+            broadcast = true;
+        }
+        if (lateCount > 0) {
+            // Client đã tính cả các input bị loại vì trễ -> không coi là gian lận, đưa client về trạng thái server
+            sendResync(sender, username, state);
+            broadcast = true;
+        } else if (end < length) {
+            int claimedScore = parseNumber(inputData, end + 1, epochStart);
+            if (claimedScore >= 0 && !verifyClaimedScore(username, state, claimedScore)) {
+                broadcast = true; // gửi lại điểm thật để client sửa lại
+            }
+        }
+        if (broadcast) {
             broadcastGameState();
-        } catch (NumberFormatException e) {
-            System.err.println("Invalid score data from " + username + ": " + scoreData);
         }
     }
 
     /**
-     * Phát sóng trạng thái game
-     * Định dạng phải khớp với Client `handleGameState`:
-     * "[items]|[timeout]|[username1]:[score1]|[username2]:[score2]"
+     * Gửi trạng thái GameCore của server cho client: "epoch;score;orderIndex;position".
+     * Các batch client tính trên trạng thái cũ (epoch nhỏ hơn) sẽ bị bỏ qua
+     */
+    private void sendResync(ClientHandler sender, String username, GameCore state) {
+        int epoch = resyncEpochs.merge(username, 1, Integer::sum);
+        awaitingResync.add(username);
+        sender.sendMessage(new Message(MESSAGE_TYPE_S2C_GAME_RESYNC, epoch + ";" + state.getScore()
+                + ";" + state.getOrderIndex() + ";" + state.getPosition()));
+    }
+
+    /**
+     * Độ trễ tối đa được bù cho input của một người chơi, theo RTT server đo được
+     */
+    private long maxInputLateness(ClientHandler handler) {
+        if (!handler.getClockSync().isSynced()) {
+            return MAX_INPUT_LATENESS_MILLIS;
+        }
+        return Math.min(MAX_INPUT_LATENESS_MILLIS, handler.getClockSync().getRtt() + INPUT_LATENESS_SLACK_MILLIS);
+    }
+
+    /**
+     * So sánh điểm client báo với điểm server tính lại
+     * @return true nếu khớp
+     */
+    private boolean verifyClaimedScore(String username, GameCore state, int claimedScore) {
+        if (claimedScore == state.getScore()) return true;
+
+        System.err.println("Score mismatch from " + username + " in room " + roomId
+                + ": claimed " + claimedScore + ", verified " + state.getScore() + " (rejected)");
+        if (verification.recordMismatch(username)) {
+            System.err.println("⚠️ Player " + username + " flagged as suspicious: "
+                    + InputVerification.SUSPICIOUS_MISMATCHES + " score mismatches in room " + roomId);
+        }
+        return false;
+    }
+
+    /**
+     * Parse số nguyên không âm trong [from, to)
+     * @return -1 nếu rỗng, có ký tự lạ hoặc quá dài
+     */
+    private static int parseNumber(String text, int from, int to) {
+        if (to <= from || to - from > 9) return -1;
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Phát sóng trạng thái game dưới dạng delta
+     * Mỗi client chỉ nhận các field đã thay đổi so với snapshot nó đã ACK
+     * (xem GameStateSnapshots / GameStateDelta).
+     * Gọi từ thread timer, thread input và endGame: map điểm tạo mới mỗi lần, không dùng chung.
      */
     private void broadcastGameState() {
-        StringBuilder data = new StringBuilder();
-        data.append("0|");
-        data.append(timeLeft).append("|");
-        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
-            if (room.getPlayers().contains(entry.getKey())) {
-                data.append(entry.getKey()).append(":").append(entry.getValue()).append("|");
-            }
+        List<String> players = room.getPlayers();
+        Map<String, Integer> broadcastScores = new LinkedHashMap<>();
+        for (String player : players) {
+            broadcastScores.put(player, scores.getOrDefault(player, 0));
+        }
+
+        GameState state = new GameState(timeLeft, Collections.emptyList(), Collections.emptyList(),
+                broadcastScores, Collections.emptyMap());
+        snapshots.publish(state.toSnapshotFields(), room.getPlayerIds());
+    }
+
+    /**
+     * Xử lý ACK snapshot từ Client
+     */
+    public void handleStateAck(String username, String ackData) {
+        try {
+            snapshots.acknowledge(username, Integer.parseInt(ackData.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid state ack from " + username + ": " + ackData);
         }
-        room.broadcast(new Message(MESSAGE_TYPE_S2C_GAME_STATE, data.toString()));
     }
 
     /**
      * Kết thúc game
      */
     private void endGame(String reason, String leavingPlayer) {
-        if (!gameActive) return;
-        gameActive = false;
+        synchronized (this) {
+            if (!gameActive) return; // Chỉ một lần gọi được kết thúc ván
+            gameActive = false;
+            ending = true;
+        }
+        try {
+            finishGame(reason, leavingPlayer);
+        } finally {
+            Runnable deferred;
+            synchronized (this) {
+                ending = false;
+                deferred = afterEnd;
+                afterEnd = null;
+            }
+            if (deferred != null) {
+                deferred.run();
+            }
+        }
+    }
+
+    private void finishGame(String reason, String leavingPlayer) {
         if (gameTimerTask != null) gameTimerTask.cancel(false);
-        if (scheduler != null) scheduler.shutdown();
 
         // Nếu có người chơi rời giữa chừng, set điểm của họ về 0
         if (leavingPlayer != null && reason != null && reason.equals("OPPONENT_LEFT")) {
             scores.put(leavingPlayer, 0);
+            if (replay != null) replay.recordScore(currentTick(), leavingPlayer, 0);
             System.out.println("Set score to 0 for leaving player: " + leavingPlayer);
 
             // Broadcast game state ngay lập tức để client nhận được điểm cập nhật
@@ -117,6 +409,18 @@ public class MultiplayerGameSession {
             }
         }
 
+        if (replay != null) {
+            replay.recordGameOver(currentTick(), leavingPlayer);
+            replay.close();
+            ReplayRetention retention = GameServer.getReplayRetention();
+            if (retention != null) {
+                retention.requestPrune(); // Giữ thư mục replay trong giới hạn
+            }
+        }
+
+        System.out.println("Input verification in room " + roomId + ": " + verification.summary()
+                + " (server total: " + InputVerification.globalSummary() + ")");
+
         saveScoresToDatabase();
         String payload;
         if (reason != null) {
@@ -133,7 +437,7 @@ public class MultiplayerGameSession {
             room.broadcast(gameOverMsg);
         }
         System.out.println("Game ended in room " + roomId);
-        GameServer.removeGameSession(roomId);
+        GameServer.onGameFinished(roomId, new HashMap<>(scores), leavingPlayer);
     }
 
     public void stopGame() {
@@ -144,8 +448,26 @@ public class MultiplayerGameSession {
         endGame(reason, leavingPlayer); // Dừng game với lý do
     }
 
+    /**
+     * Đang chơi hoặc đang kết thúc ván
+     */
     public boolean isActive() {
-        return gameActive;
+        return gameActive || ending;
+    }
+
+    public OrderGenerator getOrderGenerator() {
+        return orders;
+    }
+
+    public EntityFactory getEntityFactory() {
+        return entities;
+    }
+
+    /**
+     * Số giây đã trôi qua kể từ khi bắt đầu game (dùng làm tick cho replay)
+     */
+    private int currentTick() {
+        return GAME_DURATION_SECONDS - timeLeft;
     }
 
     /**
@@ -156,11 +478,14 @@ public class MultiplayerGameSession {
             String username = entry.getKey();
             int score = entry.getValue();
 
-            if (database.saveScore(username, score)) {
-                System.out.println("Saved score for " + username + ": " + score);
-            } else {
-                System.err.println("Failed to save score for " + username);
-            }
+            // Ghi theo nhóm (write-behind): không chặn thread kết thúc game
+            database.saveScore(username, score).whenComplete((ignored, error) -> {
+                if (error == null) {
+                    System.out.println("Saved score for " + username + ": " + score);
+                } else {
+                    System.err.println("Failed to save score for " + username + ": " + error.getMessage());
+                }
+            });
         }
 
         List<String> players = room.getPlayers();
@@ -170,11 +495,15 @@ public class MultiplayerGameSession {
             int player1Score = scores.getOrDefault(player1, 0);
             int player2Score = scores.getOrDefault(player2, 0);
 
-            if (database.saveMatchHistory(roomId, player1, player2, player1Score, player2Score)) {
-                System.out.println("Saved match history: " + player1 + " vs " + player2);
-            } else {
-                System.err.println("Failed to save match history");
-            }
+            String replayFile = replay != null ? replay.getFile().toString() : null;
+            database.saveMatchHistory(roomId, player1, player2, player1Score, player2Score, replayFile)
+                    .whenComplete((matchId, error) -> {
+                        if (error == null) {
+                            System.out.println("Saved match history " + matchId + ": " + player1 + " vs " + player2);
+                        } else {
+                            System.err.println("Failed to save match history: " + error.getMessage());
+                        }
+                    });
         }
     }
 }
\ No newline at end of file
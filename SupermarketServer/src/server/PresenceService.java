@@ -0,0 +1,203 @@
+package server;
+
+import database.DatabaseManager;
+import models.Message;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static constants.GameConstants.MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED;
+
+/**
+ * Who is online and who is friends with whom, kept in memory.
+ * The friend list of a user is read from the database once, when the user
+ * logs in, and kept up to date by friendAdded / friendRemoved while the
+ * user stays online. Online state is a bitmap over the server's dense user ids.
+ * Fan-out of online/offline events and friend checks between online users
+ * never touch the database.
+ *
+ * Events are pushed only to subscribed users (those with the lobby open):
+ * S2C_FRIEND_STATUS_CHANGED "username;online|offline|added|removed".
+ * A subscriber gets the full friend list once when it subscribes and
+ * incremental events after that, so the client never polls.
+ */
+public class PresenceService {
+    private final DatabaseManager database;
+    // username -> id dày dùng làm chỉ số bitmap online (id user không bao giờ được dùng lại)
+    private final IdTable userIds;
+    private final BitSet online = new BitSet();
+    // Danh sách bạn của các user đang online
+    private final Map<String, Set<String>> friendsOf = new HashMap<>();
+    // User đang mở lobby và nhận sự kiện presence
+    private final Set<String> subscribers = new HashSet<>();
+
+    PresenceService(DatabaseManager database, IdTable userIds) {
+        this.database = database;
+        this.userIds = userIds;
+    }
+
+    /**
+     * User logged in: load their friends and tell the online ones
+     */
+    public void userOnline(String username) {
+        List<String> friends = database.getFriends(username);
+        List<String> toNotify;
+        synchronized (this) {
+            friendsOf.put(username, new HashSet<>(friends));
+            online.set(userIds.intern(username));
+            toNotify = subscribedAmong(friends);
+        }
+        notifyStatus(toNotify, username, "online");
+    }
+
+    /**
+     * User logged out or disconnected: tell the online friends and drop their list
+     */
+    public void userOffline(String username) {
+        List<String> toNotify;
+        synchronized (this) {
+            Set<String> friends = friendsOf.remove(username);
+            int index = userIds.idOf(username);
+            if (friends == null || index < 0 || !online.get(index)) {
+                return; // Đã offline
+            }
+            online.clear(index);
+            subscribers.remove(username);
+            toNotify = subscribedAmong(friends);
+        }
+        notifyStatus(toNotify, username, "offline");
+    }
+
+    /**
+     * Start pushing friend events to an online user.
+     * The caller sends the friend list snapshot after this returns, so no
+     * event between the snapshot and the subscription is lost.
+     */
+    public synchronized void subscribe(String username) {
+        if (friendsOf.containsKey(username)) {
+            subscribers.add(username);
+        }
+    }
+
+    public synchronized void unsubscribe(String username) {
+        subscribers.remove(username);
+    }
+
+    public synchronized boolean isOnline(String username) {
+        int index = userIds.idOf(username);
+        return index >= 0 && online.get(index);
+    }
+
+    /**
+     * Friends of an online user (loaded at login); falls back to the database otherwise
+     */
+    public List<String> getFriends(String username) {
+        synchronized (this) {
+            Set<String> friends = friendsOf.get(username);
+            if (friends != null) {
+                return new ArrayList<>(friends);
+            }
+        }
+        return database.getFriends(username);
+    }
+
+    public boolean areFriends(String user1, String user2) {
+        synchronized (this) {
+            Set<String> friends = friendsOf.get(user1);
+            if (friends != null) return friends.contains(user2);
+            friends = friendsOf.get(user2);
+            if (friends != null) return friends.contains(user1);
+        }
+        return database.areFriends(user1, user2);
+    }
+
+    /**
+     * Friendship created (after the database write)
+     */
+    public void friendAdded(String user1, String user2) {
+        boolean online1;
+        boolean online2;
+        boolean notify1;
+        boolean notify2;
+        synchronized (this) {
+            Set<String> friends = friendsOf.get(user1);
+            if (friends != null) friends.add(user2);
+            friends = friendsOf.get(user2);
+            if (friends != null) friends.add(user1);
+            online1 = isOnline(user1);
+            online2 = isOnline(user2);
+            notify1 = subscribers.contains(user1);
+            notify2 = subscribers.contains(user2);
+        }
+        if (notify1) {
+            send(user1, user2, "added");
+            if (online2) send(user1, user2, "online");
+        }
+        if (notify2) {
+            send(user2, user1, "added");
+            if (online1) send(user2, user1, "online");
+        }
+    }
+
+    /**
+     * Friendship removed (after the database write)
+     */
+    public void friendRemoved(String user1, String user2) {
+        boolean notify1;
+        boolean notify2;
+        synchronized (this) {
+            Set<String> friends = friendsOf.get(user1);
+            if (friends != null) friends.remove(user2);
+            friends = friendsOf.get(user2);
+            if (friends != null) friends.remove(user1);
+            notify1 = subscribers.contains(user1);
+            notify2 = subscribers.contains(user2);
+        }
+        if (notify1) send(user1, user2, "removed");
+        if (notify2) send(user2, user1, "removed");
+    }
+
+    public synchronized int getOnlineCount() {
+        return online.cardinality();
+    }
+
+    /**
+     * Users in the list who subscribed (subscribers are always online)
+     */
+    private List<String> subscribedAmong(Iterable<String> users) {
+        List<String> result = null;
+        for (String user : users) {
+            if (subscribers.contains(user)) {
+                if (result == null) result = new ArrayList<>();
+                result.add(user);
+            }
+        }
+        return result == null ? Collections.<String>emptyList() : result;
+    }
+
+    /**
+     * Gửi ngoài lock để một socket chậm không chặn các lần đăng nhập khác
+     */
+    private static void notifyStatus(List<String> friends, String username, String status) {
+        Message message = new Message(MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED, username + ";" + status);
+        for (String friend : friends) {
+            ClientHandler handler = GameServer.getClient(friend);
+            if (handler != null) {
+                handler.sendMessage(message);
+            }
+        }
+    }
+
+    private static void send(String to, String username, String status) {
+        ClientHandler handler = GameServer.getClient(to);
+        if (handler != null) {
+            handler.sendMessage(new Message(MESSAGE_TYPE_S2C_FRIEND_STATUS_CHANGED, username + ";" + status));
+        }
+    }
+}
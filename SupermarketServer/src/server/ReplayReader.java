@@ -0,0 +1,198 @@
+package server;
+
+import database.DatabaseManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads replay files written by {@link ReplayRecorder} and reconstructs
+ * the match state at any tick.
+ */
+public class ReplayReader {
+    private final String roomId;
+    private final long startTime;
+    private final long orderSeed;
+    private final String[] players;
+    private final ByteBuffer records;
+    private final int lastTick;
+
+    private ReplayReader(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != ReplayRecorder.MAGIC) {
+            throw new IOException("Not a replay file");
+        }
+        short version = buffer.getShort();
+        if (version != ReplayRecorder.VERSION) {
+            throw new IOException("Unsupported replay version: " + version);
+        }
+        startTime = buffer.getLong();
+        orderSeed = buffer.getLong();
+        roomId = getUtf(buffer);
+        players = new String[buffer.get()];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = getUtf(buffer);
+        }
+        records = buffer.slice();
+        lastTick = scan(Integer.MAX_VALUE).tick;
+    }
+
+    /**
+     * Open a replay file
+     */
+    public static ReplayReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new ReplayReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Open the replay recorded for a match_history row
+     * @return the reader, or null if no replay is indexed for that match
+     */
+    public static ReplayReader openForMatch(DatabaseManager database, long matchId) throws IOException {
+        String replayFile = database.getReplayFile(matchId);
+        return replayFile != null ? open(Paths.get(replayFile)) : null;
+    }
+
+    /**
+     * Reconstruct the match state as it was at the end of the given tick
+     */
+    public State stateAt(int tick) {
+        return scan(tick);
+    }
+
+    /**
+     * Apply every record up to and including the given tick
+     */
+    private State scan(int untilTick) {
+        ByteBuffer buffer = records.duplicate();
+        State state = new State(players.length);
+
+        while (buffer.remaining() >= 3) {
+            byte type = buffer.get();
+            if (type == ReplayRecorder.RECORD_END) break;
+
+            int tick = buffer.getShort();
+            if (tick > untilTick) break;
+            state.tick = tick;
+
+            switch (type) {
+                case ReplayRecorder.RECORD_TICK:
+                    state.timeLeft = buffer.getShort();
+                    break;
+                case ReplayRecorder.RECORD_SCORE:
+                    int player = buffer.get();
+                    int score = buffer.getInt();
+                    if (player >= 0 && player < state.scores.length) {
+                        state.scores[player] = score;
+                    }
+                    break;
+                case ReplayRecorder.RECORD_GAME_OVER:
+                    state.gameOver = true;
+                    state.opponentLeft = buffer.get() == ReplayRecorder.REASON_OPPONENT_LEFT;
+                    int leaving = buffer.get();
+                    state.leavingPlayer = leaving >= 0 && leaving < players.length ? players[leaving] : null;
+                    break;
+                case ReplayRecorder.RECORD_INPUT:
+                    // Input thô không ảnh hưởng state; điểm đã được ghi bằng RECORD_SCORE
+                    buffer.position(buffer.position() + 8);
+                    state.inputCount++;
+                    break;
+                default:
+                    System.err.println("Corrupt replay record type " + type + " in room " + roomId);
+                    return state;
+            }
+        }
+        return state;
+    }
+
+    private static String getUtf(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Getters
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getOrderSeed() {
+        return orderSeed;
+    }
+
+    public String[] getPlayers() {
+        return players.clone();
+    }
+
+    public int getLastTick() {
+        return lastTick;
+    }
+
+    /**
+     * Match state at a given tick
+     */
+    public class State {
+        private int tick;
+        private int timeLeft = MultiplayerGameSession.GAME_DURATION_SECONDS;
+        private final int[] scores;
+        private boolean gameOver;
+        private boolean opponentLeft;
+        private String leavingPlayer;
+        private int inputCount;
+
+        private State(int playerCount) {
+            this.scores = new int[playerCount];
+        }
+
+        public int getTick() {
+            return tick;
+        }
+
+        public int getTimeLeft() {
+            return timeLeft;
+        }
+
+        public Map<String, Integer> getScores() {
+            Map<String, Integer> result = new LinkedHashMap<>();
+            for (int i = 0; i < players.length; i++) {
+                result.put(players[i], scores[i]);
+            }
+            return result;
+        }
+
+        public boolean isGameOver() {
+            return gameOver;
+        }
+
+        public boolean isOpponentLeft() {
+            return opponentLeft;
+        }
+
+        public String getLeavingPlayer() {
+            return leavingPlayer;
+        }
+
+        public int getInputCount() {
+            return inputCount;
+        }
+
+        @Override
+        public String toString() {
+            return "ReplayState[tick=" + tick + ", timeLeft=" + timeLeft +
+                    ", scores=" + Arrays.toString(scores) + ", gameOver=" + gameOver + "]";
+        }
+    }
+}
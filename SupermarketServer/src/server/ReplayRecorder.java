@@ -0,0 +1,183 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Append-only binary replay log for one match.
+ * Records are put straight into a memory-mapped segment of the file, so the
+ * tick thread only pays for a few buffer writes. When a segment fills up the
+ * next one is mapped right after it.
+ *
+ * File layout:
+ * [magic:int][version:short][startTime:long][orderSeed:long][roomId:utf][playerCount:byte][player:utf]...
+ * followed by records [type:byte][tick:short][payload]. Unwritten space in the
+ * last segment is zero-filled, so a zero type byte marks the end of the log.
+ */
+public class ReplayRecorder implements Closeable {
+    public static final int MAGIC = 0x534D5250; // "SMRP"
+    public static final short VERSION = 2;
+
+    public static final byte RECORD_END = 0;
+    public static final byte RECORD_TICK = 1;       // [timeLeft:short]
+    public static final byte RECORD_SCORE = 2;      // [player:byte][score:int]
+    public static final byte RECORD_GAME_OVER = 3;  // [reason:byte][leavingPlayer:byte]
+    public static final byte RECORD_INPUT = 4;      // [player:byte][key:byte][orderIndex:short][clientTime:int]
+
+    public static final byte REASON_TIME_UP = 0;
+    public static final byte REASON_OPPONENT_LEFT = 1;
+
+    public static final String REPLAY_DIR = "replays";
+
+    private static final int SEGMENT_SIZE = 16 * 1024;
+    private static final int MAX_RECORD_SIZE = 11;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final String[] players;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private boolean closed = false;
+
+    private ReplayRecorder(Path file, String roomId, List<String> players, long orderSeed, long startTime) throws IOException {
+        this.file = file;
+        this.players = players.toArray(new String[0]);
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segmentStart = 0;
+        this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+
+        segment.putInt(MAGIC);
+        segment.putShort(VERSION);
+        segment.putLong(startTime);
+        segment.putLong(orderSeed);
+        putUtf(roomId);
+        segment.put((byte) this.players.length);
+        for (String player : this.players) {
+            putUtf(player);
+        }
+    }
+
+    /**
+     * Create a recorder for a new match in the replay directory
+     * @param orderSeed seed of the match's order stream, so orders can be re-derived
+     * @return the recorder, or null if the file could not be created
+     */
+    public static ReplayRecorder create(String roomId, List<String> players, long orderSeed) {
+        long startTime = System.currentTimeMillis();
+        Path file = Paths.get(REPLAY_DIR, roomId + "_" + startTime + ".rpl");
+        try {
+            Files.createDirectories(file.getParent());
+            return new ReplayRecorder(file, roomId, players, orderSeed, startTime);
+        } catch (IOException e) {
+            System.err.println("Failed to create replay file " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Record a session tick
+     */
+    public synchronized void recordTick(int tick, int timeLeft) {
+        if (!ensureCapacity()) return;
+        segment.put(RECORD_TICK);
+        segment.putShort((short) tick);
+        segment.putShort((short) timeLeft);
+    }
+
+    /**
+     * Record an accepted score for a player
+     */
+    public synchronized void recordScore(int tick, String username, int score) {
+        int player = indexOf(username);
+        if (player < 0 || !ensureCapacity()) return;
+        segment.put(RECORD_SCORE);
+        segment.putShort((short) tick);
+        segment.put((byte) player);
+        segment.putInt(score);
+    }
+
+    /**
+     * Record a raw input event from a player
+     */
+    public synchronized void recordInput(int tick, String username, int keyNumber, int orderIndex, int clientTime) {
+        int player = indexOf(username);
+        if (player < 0 || !ensureCapacity()) return;
+        segment.put(RECORD_INPUT);
+        segment.putShort((short) tick);
+        segment.put((byte) player);
+        segment.put((byte) keyNumber);
+        segment.putShort((short) orderIndex);
+        segment.putInt(clientTime);
+    }
+
+    /**
+     * Record the end of the match
+     * @param leavingPlayer player who left mid-game, or null if time ran out
+     */
+    public synchronized void recordGameOver(int tick, String leavingPlayer) {
+        if (!ensureCapacity()) return;
+        segment.put(RECORD_GAME_OVER);
+        segment.putShort((short) tick);
+        segment.put(leavingPlayer != null ? REASON_OPPONENT_LEFT : REASON_TIME_UP);
+        segment.put((byte) indexOf(leavingPlayer));
+    }
+
+    /**
+     * Flush the mapped pages and release the file
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            segment.force();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close replay file " + file + ": " + e.getMessage());
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Map the next segment when the current one cannot hold another record
+     */
+    private boolean ensureCapacity() {
+        if (closed) return false;
+        if (segment.remaining() > MAX_RECORD_SIZE) return true;
+        try {
+            segmentStart += segment.position();
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_SIZE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to extend replay file " + file + ": " + e.getMessage());
+            closed = true;
+            return false;
+        }
+    }
+
+    private int indexOf(String username) {
+        if (username == null) return -1;
+        for (int i = 0; i < players.length; i++) {
+            if (players[i].equals(username)) return i;
+        }
+        return -1;
+    }
+
+    private void putUtf(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        segment.putShort((short) bytes.length);
+        segment.put(bytes);
+    }
+}
@@ -0,0 +1,114 @@
+package server;
+
+import database.DatabaseManager;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Retention for the replay directory.
+ * Keeps at most MAX_REPLAYS files and none older than MAX_AGE_MILLIS; older
+ * or excess files are deleted, newest kept first, and their match_replays
+ * rows are removed so getReplayFile never points at a missing file.
+ * Runs once at startup and again after each replay is written, on its own
+ * daemon thread; requests that arrive while a prune is queued share it.
+ */
+class ReplayRetention {
+    static final int MAX_REPLAYS = 500;
+    static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private final DatabaseManager database;
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "replay-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ReplayRetention(DatabaseManager database) {
+        this.database = database;
+    }
+
+    /**
+     * Prune in the background (after a replay was written)
+     */
+    void requestPrune() {
+        if (queued.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                queued.set(false);
+                prune();
+            });
+        }
+    }
+
+    /**
+     * Delete the replays beyond the retention limits
+     * @return number of files deleted
+     */
+    int prune() {
+        Path dir = Paths.get(ReplayRecorder.REPLAY_DIR);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+
+        List<Replay> replays = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.rpl")) {
+            for (Path file : files) {
+                try {
+                    replays.add(new Replay(file, Files.getLastModifiedTime(file).toMillis()));
+                } catch (IOException e) {
+                    // File vừa bị xóa
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list replays: " + e.getMessage());
+            return 0;
+        }
+        replays.sort((a, b) -> Long.compare(b.modified, a.modified)); // Mới nhất trước
+
+        long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+        List<String> deleted = new ArrayList<>();
+        for (int i = 0; i < replays.size(); i++) {
+            Replay replay = replays.get(i);
+            if (i < MAX_REPLAYS && replay.modified >= oldest) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(replay.file);
+                deleted.add(replay.file.toString()); // Cùng dạng đường dẫn đã lưu trong match_replays
+            } catch (IOException e) {
+                System.err.println("Failed to delete replay " + replay.file + ": " + e.getMessage());
+            }
+        }
+        if (deleted.isEmpty()) {
+            return 0;
+        }
+
+        database.deleteReplays(deleted).whenComplete((rows, error) -> {
+            if (error != null) {
+                System.err.println("Failed to remove replay rows: " + error.getMessage());
+            }
+        });
+        System.out.println("Replay retention: deleted " + deleted.size() + " of " + replays.size() + " replays");
+        return deleted.size();
+    }
+
+    private static final class Replay {
+        final Path file;
+        final long modified;
+
+        Replay(Path file, long modified) {
+            this.file = file;
+            this.modified = modified;
+        }
+    }
+}
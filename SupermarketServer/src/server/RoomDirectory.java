@@ -0,0 +1,308 @@
+package server;
+
+import models.Message;
+import utils.JsonBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static constants.GameConstants.MESSAGE_TYPE_S2C_ROOM_LIST_DELTA;
+
+/**
+ * Versioned directory of the rooms shown in the room browser.
+ * Every change bumps the version and is pushed as a delta only to the
+ * clients that subscribed (i.e. are looking at the room browser):
+ *   "version|A|{room}"   room added
+ *   "version|U|{room}"   room updated
+ *   "version|R|roomId"   room removed
+ *   "version|S|[rooms]"  full snapshot (on subscribe, or when a resync
+ *                        cannot be served from the change log)
+ * A client that notices a gap re-subscribes with the last version it has;
+ * the missed changes are replayed from a bounded change log.
+ *
+ * Rooms are also kept in creation order, in one index of all rooms and one
+ * of rooms that are not full, so a page of the room browser (see
+ * {@link #query}) is read straight from the right index starting at the
+ * cursor, without scanning or re-serialising the other rooms.
+ *
+ * Messages are never sent under the directory lock: changes are queued for
+ * delivery in version order while it is held, and sent after it is released
+ * by whichever thread is not already delivering.
+ */
+public class RoomDirectory {
+    private static final int CHANGE_LOG_SIZE = 256;
+
+    private static final char OP_ADDED = 'A';
+    private static final char OP_UPDATED = 'U';
+    private static final char OP_REMOVED = 'R';
+    private static final char OP_SNAPSHOT = 'S';
+
+    public static final int MAX_PAGE_SIZE = 50;
+
+    // Thứ tự tạo phòng; roomId để phân biệt các phòng tạo cùng một ms
+    private static final Comparator<Entry> CREATION_ORDER =
+            Comparator.comparingLong((Entry e) -> e.createdTime).thenComparing(e -> e.roomId);
+
+    private final Map<String, Entry> rooms = new HashMap<>();
+    private final NavigableSet<Entry> byCreation = new TreeSet<>(CREATION_ORDER);
+    private final NavigableSet<Entry> openByCreation = new TreeSet<>(CREATION_ORDER); // chưa đầy
+    private final ArrayDeque<Change> changeLog = new ArrayDeque<>();
+    private final Set<ClientHandler> subscribers = ConcurrentHashMap.newKeySet();
+    private long version = 0;
+    private final ArrayDeque<Delivery> outgoing = new ArrayDeque<>(); // theo thứ tự version
+    private boolean delivering;
+
+    /**
+     * Publish the current state of a room (added if not listed yet)
+     */
+    public void roomChanged(GameRoom room) {
+        synchronized (this) {
+            if (GameServer.getRoom(room.getRoomId()) != room) {
+                return; // Phòng đã bị xóa trong lúc chờ lock
+            }
+            Entry entry = new Entry(room.getRoomId(), room.getCreatedTime(), room.isFull(), toJson(room));
+            Entry previous = rooms.put(entry.roomId, entry);
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(entry);
+            if (previous != null && previous.json.equals(entry.json)) return;
+            publish(previous == null ? OP_ADDED : OP_UPDATED, entry.json);
+        }
+        deliver();
+    }
+
+    /**
+     * Remove a room from the directory
+     */
+    public void roomRemoved(String roomId) {
+        synchronized (this) {
+            Entry previous = rooms.remove(roomId);
+            if (previous == null) return;
+            unindex(previous);
+            publish(OP_REMOVED, roomId);
+        }
+        deliver();
+    }
+
+    /**
+     * Start pushing deltas to a client
+     * @param sinceVersion last version the client has, or -1 for a full snapshot
+     */
+    public void subscribe(ClientHandler client, long sinceVersion) {
+        synchronized (this) {
+            subscribers.add(client);
+
+            List<ClientHandler> recipient = Collections.singletonList(client);
+            if (sinceVersion >= 0 && sinceVersion <= version && canReplayFrom(sinceVersion)) {
+                for (Change change : changeLog) {
+                    if (change.version > sinceVersion) {
+                        outgoing.addLast(new Delivery(recipient, change.message));
+                    }
+                }
+            } else {
+                outgoing.addLast(new Delivery(recipient, new Message(MESSAGE_TYPE_S2C_ROOM_LIST_DELTA,
+                        version + "|" + OP_SNAPSHOT + "|" + snapshotJson())));
+            }
+        }
+        deliver();
+    }
+
+    public void unsubscribe(ClientHandler client) {
+        subscribers.remove(client);
+    }
+
+    /**
+     * All listed rooms as a JSON array
+     */
+    public synchronized String snapshotJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (Entry entry : byCreation) {
+            if (json.length() > 1) json.append(',');
+            json.append(entry.json);
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * One page of the room browser, in creation order
+     * @param limit page size (capped at MAX_PAGE_SIZE)
+     * @param cursor nextCursor of the previous page, or null for the first page
+     * @param notFull only rooms with a free slot
+     * @param candidateRoomIds only these rooms (e.g. rooms with a friend inside), or null for all
+     * @param createdAfter only rooms created after this time (ms), or 0
+     * @return {"rooms":[...],"nextCursor":"..."}; nextCursor is null on the last page
+     */
+    public synchronized String query(int limit, String cursor, boolean notFull,
+                                     Collection<String> candidateRoomIds, long createdAfter) {
+        limit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        NavigableSet<Entry> source;
+        if (candidateRoomIds != null) {
+            // Tập ứng viên nhỏ (phòng của bạn bè): sắp xếp riêng
+            source = new TreeSet<>(CREATION_ORDER);
+            for (String roomId : candidateRoomIds) {
+                Entry entry = rooms.get(roomId);
+                if (entry != null) source.add(entry);
+            }
+        } else {
+            source = notFull ? openByCreation : byCreation;
+        }
+
+        Entry from = parseCursor(cursor);
+        Entry after = new Entry("", createdAfter + 1, false, null);
+        if (from == null || CREATION_ORDER.compare(after, from) > 0) {
+            source = source.tailSet(after, true);
+        } else {
+            source = source.tailSet(from, false);
+        }
+
+        StringBuilder json = new StringBuilder("{\"rooms\":[");
+        Entry last = null;
+        int count = 0;
+        Iterator<Entry> it = source.iterator();
+        while (it.hasNext() && count < limit) {
+            Entry entry = it.next();
+            if (notFull && entry.full) continue; // chỉ xảy ra với tập ứng viên
+            if (count > 0) json.append(',');
+            json.append(entry.json);
+            last = entry;
+            count++;
+        }
+        json.append("],\"nextCursor\":");
+        if (last != null && it.hasNext()) {
+            json.append('"').append(last.createdTime).append(':').append(last.roomId).append('"');
+        } else {
+            json.append("null");
+        }
+        return json.append('}').toString();
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private void index(Entry entry) {
+        byCreation.add(entry);
+        if (!entry.full) openByCreation.add(entry);
+    }
+
+    private void unindex(Entry entry) {
+        byCreation.remove(entry);
+        openByCreation.remove(entry);
+    }
+
+    /**
+     * Cursor "createdTime:roomId" -> probe entry, null if absent or invalid
+     */
+    private static Entry parseCursor(String cursor) {
+        if (cursor == null) return null;
+        int sep = cursor.indexOf(':');
+        if (sep <= 0) return null;
+        try {
+            return new Entry(cursor.substring(sep + 1), Long.parseLong(cursor.substring(0, sep)), false, null);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void publish(char op, String payload) {
+        version++;
+        Message message = new Message(MESSAGE_TYPE_S2C_ROOM_LIST_DELTA, version + "|" + op + "|" + payload);
+        changeLog.addLast(new Change(version, message));
+        if (changeLog.size() > CHANGE_LOG_SIZE) {
+            changeLog.removeFirst();
+        }
+        outgoing.addLast(new Delivery(new ArrayList<>(subscribers), message));
+    }
+
+    /**
+     * Send queued deliveries in order, outside the directory lock. If another
+     * thread is already delivering it also sends what was just queued.
+     */
+    private void deliver() {
+        synchronized (this) {
+            if (delivering) return;
+            delivering = true;
+        }
+        while (true) {
+            Delivery next;
+            synchronized (this) {
+                next = outgoing.pollFirst();
+                if (next == null) {
+                    delivering = false;
+                    return;
+                }
+            }
+            for (ClientHandler recipient : next.recipients) {
+                recipient.sendMessage(next.message);
+            }
+        }
+    }
+
+    /**
+     * Whether every change after sinceVersion is still in the log
+     */
+    private boolean canReplayFrom(long sinceVersion) {
+        return sinceVersion == version
+                || (!changeLog.isEmpty() && changeLog.peekFirst().version <= sinceVersion + 1);
+    }
+
+    private static String toJson(GameRoom room) {
+        Map<String, Object> roomData = new HashMap<>();
+        roomData.put("roomId", room.getRoomId());
+        roomData.put("creator", room.getCreator());
+        roomData.put("playerCount", room.getPlayerCount());
+        roomData.put("maxPlayers", room.getMaxPlayers());
+        return JsonBuilder.buildObject(roomData);
+    }
+
+    private static final class Entry {
+        final String roomId;
+        final long createdTime;
+        final boolean full;
+        final String json;
+
+        Entry(String roomId, long createdTime, boolean full, String json) {
+            this.roomId = roomId;
+            this.createdTime = createdTime;
+            this.full = full;
+            this.json = json;
+        }
+    }
+
+    private static final class Change {
+        final long version;
+        final Message message;
+
+        Change(long version, Message message) {
+            this.version = version;
+            this.message = message;
+        }
+    }
+
+    private static final class Delivery {
+        final List<ClientHandler> recipients;
+        final Message message;
+
+        Delivery(List<ClientHandler> recipients, Message message) {
+            this.recipients = recipients;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package server;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expiry index for idle rooms.
+ * Every membership change or game start pushes a new deadline for the room;
+ * a single daemon thread sleeps until the earliest deadline. Entries that
+ * were superseded by a later touch are recognised by their deadline and
+ * skipped, so the cost is proportional to the number of changes, not to the
+ * number of rooms. Empty rooms never get here: they are reclaimed as soon as
+ * the last player leaves (see GameServer.onMembershipChanged).
+ */
+class RoomReaper {
+    static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final DelayQueue<Expiry> queue = new DelayQueue<>();
+
+    /**
+     * Start the reaper thread
+     */
+    void start() {
+        Thread thread = new Thread(this::run, "room-reaper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Push back the idle deadline of a room
+     */
+    void touch(GameRoom room) {
+        long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MILLIS;
+        room.setExpiresAt(deadline);
+        queue.add(new Expiry(room.getRoomId(), deadline));
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Expiry expiry;
+            try {
+                expiry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            GameRoom room = GameServer.getRoom(expiry.roomId);
+            if (room == null || room.getExpiresAt() != expiry.deadline) {
+                continue; // Phòng đã bị xóa hoặc đã có hạn mới
+            }
+
+            MultiplayerGameSession session = GameServer.getGameSession(expiry.roomId);
+            if (session != null && session.isActive()) {
+                touch(room);
+                continue;
+            }
+            GameServer.expireRoom(expiry.roomId);
+        }
+    }
+
+    private static final class Expiry implements Delayed {
+        private final String roomId;
+        private final long deadline;
+
+        Expiry(String roomId, long deadline) {
+            this.roomId = roomId;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((Expiry) other).deadline);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel shared by short-lived server timeouts (join requests,
+ * room invites). Scheduling and cancelling are O(1): a timeout goes into
+ * the bucket of its deadline tick, and cancelling only flags it. One daemon
+ * thread advances the wheel every TICK_MILLIS and runs the due tasks, so
+ * thousands of pending timeouts cost no threads and no sorting.
+ * Precision is one tick; tasks must be short (they run on the wheel thread).
+ */
+class TimerWheel {
+    static final long TICK_MILLIS = 250;
+    private static final int WHEEL_SIZE = 256; // một vòng = 64 giây
+
+    private final List<List<Timeout>> buckets = new ArrayList<>(WHEEL_SIZE);
+    private long tick; // tick hiện tại, chỉ tăng
+
+    TimerWheel() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Start the wheel thread
+     */
+    void start(String name) {
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run a task once after the delay (rounded up to a whole tick)
+     */
+    synchronized Timeout schedule(long delayMillis, Runnable task) {
+        long ticks = Math.max(1, (delayMillis + TICK_MILLIS - 1) / TICK_MILLIS);
+        Timeout timeout = new Timeout(task, tick + ticks);
+        buckets.get((int) (timeout.deadlineTick % WHEEL_SIZE)).add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            next += TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            List<Timeout> due = new ArrayList<>();
+            synchronized (this) {
+                tick++;
+                List<Timeout> bucket = buckets.get((int) (tick % WHEEL_SIZE));
+                // Giữ lại các timeout của những vòng sau, bỏ các timeout đã hủy
+                int kept = 0;
+                for (Timeout timeout : bucket) {
+                    if (timeout.cancelled) continue;
+                    if (timeout.deadlineTick <= tick) {
+                        due.add(timeout);
+                    } else {
+                        bucket.set(kept++, timeout);
+                    }
+                }
+                bucket.subList(kept, bucket.size()).clear();
+            }
+
+            for (Timeout timeout : due) {
+                if (timeout.cancelled) continue;
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Timer task failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private volatile boolean cancelled;
+
+        Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Prevent the task from running; the entry is dropped on its next pass
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package server;
+
+import database.DatabaseManager;
+import models.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static constants.GameConstants.MESSAGE_TYPE_S2C_TOURNAMENT_STATUS;
+
+/**
+ * Single-elimination tournaments run by the server.
+ *
+ * Entrants are seeded at random into a bracket padded to a power of two;
+ * the empty seats are byes, which advance without a game. A match starts
+ * as soon as both of its players are known, so the bracket keeps moving
+ * while slower matches of the same round are still being played.
+ *
+ * At most MAX_CONCURRENT_MATCHES tournament games run at once (a
+ * semaphore); ready matches beyond that wait in FIFO order for the permit
+ * of the next match that finishes. Ready matches are started in batches:
+ * their rooms are created in one pass (GameServer.createMatchRooms) and the
+ * sessions are started in parallel on a small pool.
+ *
+ * All bracket state is owned by the single "tournament" thread, so it needs
+ * no locking; game sessions only hand results over to it. Every pairing and
+ * result is written to tournament_matches as it happens.
+ *
+ * Entrants are told about their progress with S2C_TOURNAMENT_STATUS
+ * "status;tournamentId;round" (started, bye, walkover, advanced, eliminated, champion).
+ */
+public class TournamentManager {
+    static final int MAX_CONCURRENT_MATCHES = 64;
+    static final int MIN_ENTRANTS = 2;
+    static final int MAX_ENTRANTS = 1024;
+    private static final int START_THREADS = 4;
+
+    private final DatabaseManager database;
+    private final Semaphore matchSlots = new Semaphore(MAX_CONCURRENT_MATCHES);
+    private final ArrayDeque<Match> ready = new ArrayDeque<>(); // chờ permit (chỉ thread tournament)
+    private final Map<String, Match> running = new ConcurrentHashMap<>(); // roomId -> trận đang chơi
+    private final Map<Long, Tournament> tournaments = new ConcurrentHashMap<>();
+    private final Set<String> entrants = ConcurrentHashMap.newKeySet(); // chưa bị loại, giải chưa xong
+    private final ExecutorService executor;
+    private final ExecutorService starters;
+
+    private final AtomicLong matchesStarted = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastBatchMillis;
+
+    public TournamentManager(DatabaseManager database) {
+        this.database = database;
+        this.executor = Executors.newSingleThreadExecutor(r -> daemon(r, "tournament"));
+        this.starters = Executors.newFixedThreadPool(START_THREADS, r -> daemon(r, "tournament-start"));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * True while the player is still in a running tournament. Such a player must
+     * stay out of other rooms, or the next round would count them as a walkover
+     */
+    public boolean isEntrant(String username) {
+        return entrants.contains(username);
+    }
+
+    /**
+     * Requested players who can enter now: online, not in a room (or a game)
+     * and not already in a tournament
+     */
+    public List<String> eligibleEntrants(Collection<String> requested) {
+        List<String> eligible = new ArrayList<>();
+        for (String username : new LinkedHashSet<>(requested)) {
+            if (isAvailable(username) && !entrants.contains(username)) {
+                eligible.add(username);
+            }
+        }
+        return eligible;
+    }
+
+    /**
+     * Create a tournament and start its first round
+     * @param players eligible entrants (see eligibleEntrants), MIN_ENTRANTS..MAX_ENTRANTS
+     * @return the tournament id, or -1 if it could not be created
+     */
+    public long create(String name, String organizer, List<String> players) {
+        if (players.size() < MIN_ENTRANTS || players.size() > MAX_ENTRANTS) {
+            return -1;
+        }
+        long id = database.createTournament(name, organizer);
+        if (id < 0) {
+            return -1;
+        }
+
+        List<String> seeds = new ArrayList<>(players);
+        Collections.shuffle(seeds);
+        Tournament tournament = new Tournament(id, seeds.size());
+        tournaments.put(id, tournament);
+        entrants.addAll(seeds);
+        for (String player : seeds) {
+            GameServer.getMatchmaking().cancel(player);
+        }
+        System.out.println("Tournament " + id + " '" + name + "' created by " + organizer
+                + ": " + seeds.size() + " entrants, " + tournament.rounds.length + " rounds");
+
+        executor.execute(() -> {
+            startFirstRound(tournament, seeds);
+            drain();
+        });
+        return id;
+    }
+
+    /**
+     * A game ended (called by MultiplayerGameSession for every room)
+     * @param scores final scores, including a player who left mid-game
+     * @param leavingPlayer player who left mid-game, or null
+     */
+    void matchFinished(String roomId, Map<String, Integer> scores, String leavingPlayer) {
+        Match match = running.get(roomId);
+        if (match == null) {
+            return; // Không phải phòng của giải đấu
+        }
+        executor.execute(() -> {
+            if (!running.remove(roomId, match)) return;
+            matchSlots.release();
+
+            String winner;
+            if (leavingPlayer != null) {
+                winner = leavingPlayer.equals(match.player1) ? match.player2 : match.player1;
+            } else {
+                // Hòa: người xếp trên (player1) đi tiếp
+                winner = scores.getOrDefault(match.player2, 0) > scores.getOrDefault(match.player1, 0)
+                        ? match.player2 : match.player1;
+            }
+            closeRoom(roomId, match);
+            complete(match, winner, roomId, "advanced");
+            drain();
+        });
+    }
+
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = new HashMap<>();
+        metrics.put("tournaments", String.valueOf(tournaments.size()));
+        metrics.put("running_matches", String.valueOf(running.size()));
+        metrics.put("free_match_slots", String.valueOf(matchSlots.availablePermits()));
+        metrics.put("matches_started", String.valueOf(matchesStarted.get()));
+        metrics.put("last_batch_size", String.valueOf(lastBatchSize));
+        metrics.put("last_batch_start_ms", String.valueOf(lastBatchMillis));
+        return metrics;
+    }
+
+    // ==================== BRACKET (thread tournament) ====================
+
+    /**
+     * Pair seed i with seed (size - 1 - i); seats past the last entrant are byes
+     */
+    private void startFirstRound(Tournament tournament, List<String> seeds) {
+        Match[] first = tournament.rounds[0];
+        int size = first.length * 2;
+        Map<Integer, String[]> pairs = new LinkedHashMap<>();
+        for (int slot = 0; slot < first.length; slot++) {
+            Match match = first[slot];
+            match.player1 = seeds.get(slot);
+            int opponent = size - 1 - slot;
+            match.player2 = opponent < seeds.size() ? seeds.get(opponent) : null;
+            pairs.put(slot, new String[]{match.player1, match.player2});
+        }
+        if (!database.saveTournamentMatches(tournament.id, 1, pairs)) {
+            System.err.println("Failed to save bracket of tournament " + tournament.id);
+        }
+
+        for (String player : seeds) {
+            notify(player, "started", tournament, 1);
+        }
+        for (Match match : first) {
+            if (match.player2 == null) {
+                complete(match, match.player1, null, "bye");
+            } else {
+                ready.addLast(match);
+            }
+        }
+    }
+
+    /**
+     * Record a winner and move them to the next round (or crown them)
+     */
+    private void complete(Match match, String winner, String roomId, String status) {
+        Tournament tournament = match.tournament;
+        match.winner = winner;
+        database.saveTournamentResult(tournament.id, match.round, match.slot, winner, roomId);
+
+        String loser = winner.equals(match.player1) ? match.player2 : match.player1;
+        if (loser != null) {
+            entrants.remove(loser);
+            notify(loser, "eliminated", tournament, match.round);
+        }
+
+        if (match.round == tournament.rounds.length) {
+            entrants.remove(winner);
+            tournaments.remove(tournament.id);
+            database.finishTournament(tournament.id, winner);
+            notify(winner, "champion", tournament, match.round);
+            System.out.println("Tournament " + tournament.id + " won by " + winner);
+            return;
+        }
+
+        notify(winner, status, tournament, match.round + 1);
+        Match next = tournament.rounds[match.round][match.slot / 2];
+        if (match.slot % 2 == 0) {
+            next.player1 = winner;
+        } else {
+            next.player2 = winner;
+        }
+        if (next.player1 != null && next.player2 != null) {
+            database.saveTournamentMatches(tournament.id, next.round,
+                    Collections.singletonMap(next.slot, new String[]{next.player1, next.player2}));
+            ready.addLast(next);
+        }
+    }
+
+    /**
+     * Start as many ready matches as there are free slots
+     */
+    private void drain() {
+        while (true) {
+            List<Match> batch = new ArrayList<>();
+            while (!ready.isEmpty() && matchSlots.tryAcquire()) {
+                batch.add(ready.pollFirst());
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            launch(batch);
+        }
+    }
+
+    /**
+     * Create the rooms of a batch in one pass, then start their sessions in parallel.
+     * A player who went offline or is sitting in another room loses by walkover.
+     */
+    private void launch(List<Match> batch) {
+        long start = System.nanoTime();
+        Map<String, String[]> roomPlayers = new LinkedHashMap<>();
+        Map<String, Match> byRoom = new HashMap<>();
+        for (Match match : batch) {
+            boolean available1 = isAvailable(match.player1);
+            boolean available2 = isAvailable(match.player2);
+            if (!available1 || !available2) {
+                matchSlots.release();
+                complete(match, available2 && !available1 ? match.player2 : match.player1, null, "walkover");
+                continue;
+            }
+            String roomId = "T" + match.tournament.id + "-R" + match.round + "-" + match.slot;
+            roomPlayers.put(roomId, new String[]{match.player1, match.player2});
+            byRoom.put(roomId, match);
+        }
+        if (roomPlayers.isEmpty()) {
+            return;
+        }
+
+        List<Callable<MultiplayerGameSession>> starts = new ArrayList<>();
+        for (GameRoom room : GameServer.createMatchRooms(roomPlayers)) {
+            String roomId = room.getRoomId();
+            running.put(roomId, byRoom.remove(roomId));
+            starts.add(() -> GameServer.startGameSession(roomId));
+        }
+        for (Match match : byRoom.values()) {
+            matchSlots.release(); // Không tạo được phòng
+            complete(match, match.player1, null, "walkover");
+        }
+
+        try {
+            starters.invokeAll(starts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        matchesStarted.addAndGet(starts.size());
+        lastBatchSize = starts.size();
+        lastBatchMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Tournament: started " + starts.size() + " matches in " + lastBatchMillis
+                + " ms (running " + running.size() + ", waiting " + ready.size() + ")");
+    }
+
+    /**
+     * Online and not in any room, so a match room can be created for the player
+     */
+    private static boolean isAvailable(String username) {
+        return GameServer.getClient(username) != null && GameServer.getRoomsOfPlayer(username).isEmpty();
+    }
+
+    /**
+     * Delete a finished match room; the winner is put in a new room for the next match
+     */
+    private static void closeRoom(String roomId, Match match) {
+        GameServer.deleteRoom(roomId);
+        for (String player : new String[]{match.player1, match.player2}) {
+            ClientHandler handler = GameServer.getClient(player);
+            if (handler != null) {
+                handler.leaveRoom(roomId);
+            }
+        }
+    }
+
+    private static void notify(String username, String status, Tournament tournament, int round) {
+        ClientHandler handler = GameServer.getClient(username);
+        if (handler != null) {
+            handler.sendMessage(new Message(MESSAGE_TYPE_S2C_TOURNAMENT_STATUS,
+                    status + ";" + tournament.id + ";" + round));
+        }
+    }
+
+    private static final class Tournament {
+        final long id;
+        final Match[][] rounds; // rounds[r][slot]; trận slot của vòng r+1 nhận người thắng của slot*2 và slot*2+1
+
+        Tournament(long id, int entrantCount) {
+            this.id = id;
+            int size = Integer.highestOneBit(entrantCount - 1) << 1;
+            int roundCount = Integer.numberOfTrailingZeros(size);
+            this.rounds = new Match[roundCount][];
+            for (int r = 0; r < roundCount; r++) {
+                rounds[r] = new Match[size >> (r + 1)];
+                for (int slot = 0; slot < rounds[r].length; slot++) {
+                    rounds[r][slot] = new Match(this, r + 1, slot);
+                }
+            }
+        }
+    }
+
+    private static final class Match {
+        final Tournament tournament;
+        final int round; // từ 1
+        final int slot;
+        String player1;
+        String player2; // null = bye
+        String winner;
+
+        Match(Tournament tournament, int round, int slot) {
+            this.tournament = tournament;
+            this.round = round;
+            this.slot = slot;
+        }
+    }
+}